@@ -24,20 +24,26 @@ SOFTWARE.
 
 package com.mqtoolbox.conn;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.awt.Font;
 import java.awt.event.ActionEvent;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.KeyManagementException;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableKeyException;
 import java.security.cert.CertificateException;
 import java.util.Arrays;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocketFactory;
@@ -54,8 +60,13 @@ import com.mqtoolbox.support.TranslateSSLCipherSuite;
 
 public class Keystore {
 
+	// Process wide cache of SSL contexts, keyed by keystore and truststore path. Sharing one SSLContext (and one
+	// SSLSocketFactory) lets connections resume TLS sessions rather than doing a full handshake each time.
+	private static final ConcurrentHashMap<String, CachedContext> sslContextCache = new ConcurrentHashMap<String, CachedContext>();
+
 	private boolean clickOk = true;
 	private SSLContext sslContext = null;
+	private SSLSocketFactory socketFactory = null;
 
 	private KeyStore keystore = null;
 	private KeyManagerFactory keyManagerFactory = null;
@@ -104,21 +115,13 @@ public class Keystore {
 		}
 
 		try {
-			keystore = KeyStore.getInstance("JKS");
-			keystore.load(new FileInputStream(keyStore), keyPasswordStr.toCharArray());
-
-			keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-			keyManagerFactory.init(keystore, keyPasswordStr.toCharArray());
-
-			truststore = KeyStore.getInstance("JKS");
-			truststore.load(new FileInputStream(trustStore), trustPasswordStr.toCharArray());
-
-			trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
-
-			trustManagerFactory.init(truststore);
-
-			sslContext = SSLContext.getInstance("SSL");
-			sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+			CachedContext cached = getCachedContext(keyStore, keyPasswordStr, trustStore, trustPasswordStr);
+			keystore = cached.keystore;
+			keyManagerFactory = cached.keyManagerFactory;
+			truststore = cached.truststore;
+			trustManagerFactory = cached.trustManagerFactory;
+			sslContext = cached.sslContext;
+			socketFactory = cached.socketFactory;
 
 		} catch (KeyStoreException e) {
 			System.out.println(String.format("Unable to set up SSL environment (KeyStoreException)\n\n%s", e.getMessage()));
@@ -140,6 +143,125 @@ public class Keystore {
 
 		} catch (KeyManagementException e) {
 			System.out.println(String.format("Unable to set up SSL environment (KeyManagementException)\n\n%s", e.getMessage()));
+
+		} catch (GeneralSecurityException e) {
+			System.out.println(String.format("Unable to set up SSL environment (GeneralSecurityException)\n\n%s", e.getMessage()));
+		}
+	}
+
+	/**
+	 * Return a shared SSL socket factory for the key store and trust store. The stores are only loaded the first time, or
+	 * when either file has changed since it was last loaded; every caller then gets the same factory. Use this when
+	 * connecting to many queue managers or reconnecting often.
+	 * 
+	 * @param keyStore     Name of the keystore
+	 * @param keyStorePw   Keystore password
+	 * @param trustStore   Name of the truststore
+	 * @param trustStorePw Truststore password
+	 * @return
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	public static SSLSocketFactory getSharedSocketFactory(String keyStore, String keyStorePw, String trustStore, String trustStorePw)
+			throws GeneralSecurityException, IOException {
+		return getCachedContext(keyStore, keyStorePw, trustStore, trustStorePw).socketFactory;
+	}
+
+	/**
+	 * Remove all cached SSL contexts, for example after replacing certificates in place
+	 */
+	public static void clearCache() {
+		sslContextCache.clear();
+	}
+
+	/**
+	 * Return the cached SSL context for the stores, loading the stores if they are not cached, have been modified or were
+	 * cached with different passwords
+	 * 
+	 * @param keyStore
+	 * @param keyStorePw
+	 * @param trustStore
+	 * @param trustStorePw
+	 * @return
+	 * @throws GeneralSecurityException
+	 * @throws IOException
+	 */
+	private static CachedContext getCachedContext(String keyStore, String keyStorePw, String trustStore, String trustStorePw)
+			throws GeneralSecurityException, IOException {
+		File keyStoreFile = new File(keyStore);
+		File trustStoreFile = new File(trustStore);
+		String key = keyStoreFile.getCanonicalPath() + "|" + trustStoreFile.getCanonicalPath();
+		long keyStoreModified = keyStoreFile.lastModified();
+		long trustStoreModified = trustStoreFile.lastModified();
+		byte[] passwordHash = hashPasswords(keyStorePw, trustStorePw);
+
+		CachedContext cached = sslContextCache.get(key);
+		if (cached != null && cached.matches(keyStoreModified, trustStoreModified, passwordHash)) {
+			return cached;
+		}
+
+		// Load outside any lock; if two threads race, both contexts are valid and the last one wins
+		cached = new CachedContext(keyStoreModified, trustStoreModified, passwordHash);
+		cached.keystore = loadStore(keyStore, keyStorePw);
+		cached.keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		cached.keyManagerFactory.init(cached.keystore, keyStorePw.toCharArray());
+
+		cached.truststore = loadStore(trustStore, trustStorePw);
+		cached.trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		cached.trustManagerFactory.init(cached.truststore);
+
+		cached.sslContext = SSLContext.getInstance("SSL");
+		cached.sslContext.init(cached.keyManagerFactory.getKeyManagers(), cached.trustManagerFactory.getTrustManagers(), null);
+		cached.socketFactory = cached.sslContext.getSocketFactory();
+
+		sslContextCache.put(key, cached);
+		return cached;
+	}
+
+	private static KeyStore loadStore(String fileName, String password) throws GeneralSecurityException, IOException {
+		KeyStore store = KeyStore.getInstance("JKS");
+		InputStream is = new FileInputStream(fileName);
+		try {
+			store.load(is, password.toCharArray());
+		} finally {
+			is.close();
+		}
+		return store;
+	}
+
+	private static byte[] hashPasswords(String keyStorePw, String trustStorePw) throws NoSuchAlgorithmException {
+		MessageDigest digest = MessageDigest.getInstance("SHA-256");
+		digest.update(keyStorePw.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(trustStorePw.getBytes(StandardCharsets.UTF_8));
+		return digest.digest();
+	}
+
+	/**
+	 * A loaded SSL context and the state of the files it was loaded from
+	 *
+	 */
+	private static final class CachedContext {
+		private final long keyStoreModified;
+		private final long trustStoreModified;
+		private final byte[] passwordHash;
+
+		private KeyStore keystore = null;
+		private KeyManagerFactory keyManagerFactory = null;
+		private KeyStore truststore = null;
+		private TrustManagerFactory trustManagerFactory = null;
+		private SSLContext sslContext = null;
+		private SSLSocketFactory socketFactory = null;
+
+		CachedContext(long keyStoreModified, long trustStoreModified, byte[] passwordHash) {
+			this.keyStoreModified = keyStoreModified;
+			this.trustStoreModified = trustStoreModified;
+			this.passwordHash = passwordHash;
+		}
+
+		boolean matches(long keyStoreModified, long trustStoreModified, byte[] passwordHash) {
+			return this.keyStoreModified == keyStoreModified && this.trustStoreModified == trustStoreModified
+					&& MessageDigest.isEqual(this.passwordHash, passwordHash);
 		}
 	}
 
@@ -223,10 +345,20 @@ public class Keystore {
 	 * @return
 	 */
 	public void getSSL(Hashtable<String, SSLSocketFactory> props) {
-		if (this.sslContext == null)
+		SSLSocketFactory socketFactory = this.getSocketFactory();
+		if (socketFactory == null)
 			return;
 
-		props.put(MQConstants.SSL_SOCKET_FACTORY_PROPERTY, sslContext.getSocketFactory());
+		props.put(MQConstants.SSL_SOCKET_FACTORY_PROPERTY, socketFactory);
+	}
+
+	/**
+	 * Return the SSL socket factory. Keystore objects opened on the same files return the same factory.
+	 * 
+	 * @return
+	 */
+	public SSLSocketFactory getSocketFactory() {
+		return socketFactory;
 	}
 
 	public SSLContext getSslContext() {
@@ -0,0 +1,177 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.util.Arrays;
+
+/**
+ * Chooses the receive buffer size for gets from a queue, from the sizes of recent messages. The size is a percentile
+ * of the last windowSize message lengths, rounded up to a power of two. Messages larger than the buffer fail with
+ * MQRC_TRUNCATED_MSG_FAILED and stay on the queue; the buffer is then grown to fit and the get retried once. The buffer
+ * shrinks only after the percentile has stayed at half the buffer size or less for several evaluations in a row, so
+ * a short run of small messages does not cause the next large one to be truncated.
+ * 
+ * See {@link InputQueueGet#setAdaptiveBuffer(AdaptiveBufferSizer)}.
+ *
+ */
+public class AdaptiveBufferSizer {
+
+	// Re-evaluate the size after this many messages
+	private static final int EVALUATE_EVERY = 32;
+
+	// Shrink after this many evaluations in a row found the buffer twice as large as needed
+	private static final int SHRINK_AFTER = 4;
+
+	private final int minSize;
+
+	private final int maxSize;
+
+	private final double percentile;
+
+	private final int[] window;
+
+	// Next slot in the window, the number of slots filled, and messages since the last evaluation
+	private int next = 0;
+
+	private int filled = 0;
+
+	private int sinceEvaluation = 0;
+
+	private int bufferSize;
+
+	private int shrinkVotes = 0;
+
+	private long truncations = 0;
+
+	/**
+	 * Create a sizer covering 95% of the last 256 messages, with a buffer between 4KB and 100MB
+	 */
+	public AdaptiveBufferSizer() {
+		this(4096, 104857600, 95, 256);
+	}
+
+	/**
+	 * Create a new sizer
+	 * 
+	 * @param minSize    Smallest buffer
+	 * @param maxSize    Largest buffer; messages larger than this cannot be got
+	 * @param percentile Percentage of recent messages the buffer should hold without truncation
+	 * @param windowSize Number of recent message lengths kept
+	 */
+	public AdaptiveBufferSizer(int minSize, int maxSize, double percentile, int windowSize) {
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.percentile = percentile;
+		this.window = new int[windowSize];
+		this.bufferSize = minSize;
+	}
+
+	/**
+	 * Return the buffer size to use for the next get
+	 * 
+	 * @return
+	 */
+	public synchronized int getBufferSize() {
+		return this.bufferSize;
+	}
+
+	/**
+	 * Record the length of a message got
+	 * 
+	 * @param messageLength
+	 */
+	public synchronized void record(int messageLength) {
+		this.window[this.next] = messageLength;
+		this.next = (this.next + 1) % this.window.length;
+		if (this.filled < this.window.length) {
+			this.filled++;
+		}
+		if (++this.sinceEvaluation >= EVALUATE_EVERY) {
+			this.sinceEvaluation = 0;
+			this.evaluate();
+		}
+	}
+
+	/**
+	 * Grow the buffer after a get failed because the message was too large
+	 * 
+	 * @param messageLength Length of the message that did not fit
+	 * @return The new buffer size
+	 */
+	public synchronized int grow(int messageLength) {
+		this.truncations++;
+		this.shrinkVotes = 0;
+		this.bufferSize = this.clamp(Math.max(messageLength, this.bufferSize * 2L));
+		return this.bufferSize;
+	}
+
+	/**
+	 * Set the buffer size from the percentile of the recent message lengths
+	 */
+	private void evaluate() {
+		int samples = this.filled;
+		int[] sorted = Arrays.copyOf(this.window, samples);
+		Arrays.sort(sorted);
+		int index = Math.max(0, (int) Math.ceil(samples * this.percentile / 100.0) - 1);
+		int target = this.clamp(sorted[Math.min(index, samples - 1)]);
+
+		if (target > this.bufferSize) {
+			this.bufferSize = target;
+			this.shrinkVotes = 0;
+		} else if (target <= this.bufferSize / 2) {
+			if (++this.shrinkVotes >= SHRINK_AFTER) {
+				this.bufferSize = target;
+				this.shrinkVotes = 0;
+			}
+		} else {
+			this.shrinkVotes = 0;
+		}
+	}
+
+	/**
+	 * Round up to a power of two within the minimum and maximum sizes
+	 * 
+	 * @param size
+	 * @return
+	 */
+	private int clamp(long size) {
+		if (size >= this.maxSize) {
+			return this.maxSize;
+		}
+		long rounded = Long.highestOneBit(Math.max(1, size));
+		if (rounded < size) {
+			rounded <<= 1;
+		}
+		return (int) Math.max(this.minSize, Math.min(rounded, this.maxSize));
+	}
+
+	/**
+	 * Return the number of gets that had to be retried with a larger buffer
+	 * 
+	 * @return
+	 */
+	public synchronized long getTruncationCount() {
+		return this.truncations;
+	}
+}
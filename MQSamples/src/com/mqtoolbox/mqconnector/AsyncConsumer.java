@@ -0,0 +1,422 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQMessage;
+
+/**
+ * Consume messages from many queues on one connection without a blocked thread per queue. A listener is registered
+ * for each queue; a single receiver thread gets from the queues in turn and passes each message to its listener on the
+ * dispatch executor.
+ * 
+ * The MQ classes for Java do not offer the MQCB callback of the C and .NET interfaces, so the receiver polls without
+ * waiting. To keep idle queues cheap, a queue that is found empty is polled again after a delay that doubles with each
+ * empty poll, from the minimum to the maximum poll interval; a queue that had a message is polled again as soon as its
+ * listener returns. The maximum poll interval is therefore the worst case delay before a message on an idle queue is
+ * seen.
+ * 
+ * Messages are got outside syncpoint, so a message whose listener fails is not returned to the queue. Each queue has
+ * one message in its listener at a time, which keeps messages in order and stops a slow listener from flooding the
+ * executor. For several hundred queues, spread them over a few consumers, each with its own connection.
+ * 
+ * The dispatch executor must not reject tasks, so use one with an unbounded queue and shut it down only after
+ * {@link #stop()}. A message whose dispatch is rejected has already been removed from the queue and is lost; it is
+ * counted, and its queue is not polled again until the maximum poll interval has passed.
+ * 
+ * <pre>
+ * AsyncConsumer consumer = new AsyncConsumer(connector, Executors.newFixedThreadPool(8));
+ * consumer.register("ZTEST.QMGR1.QL", (queueName, message) -&gt; System.out.println(Helper.extractMessagePayload(message)));
+ * consumer.start();
+ * ...
+ * consumer.stop();
+ * </pre>
+ *
+ */
+public class AsyncConsumer {
+
+	private final Connector connector;
+
+	private final Executor dispatcher;
+
+	private final List<Registration> registrations = new CopyOnWriteArrayList<Registration>();
+
+	private long minPollInterval = TimeUnit.MILLISECONDS.toNanos(1);
+
+	private long maxPollInterval = TimeUnit.MILLISECONDS.toNanos(200);
+
+	private volatile boolean running = false;
+
+	private volatile boolean suspended = false;
+
+	private Thread receiver = null;
+
+	private final AtomicLong dispatchedCount = new AtomicLong();
+
+	private final AtomicLong listenerErrorCount = new AtomicLong();
+
+	private final AtomicLong rejectedCount = new AtomicLong();
+
+	private volatile Throwable lastError = null;
+
+	/**
+	 * Create a new consumer
+	 * 
+	 * @param connector  Connection used to get from every registered queue
+	 * @param dispatcher Runs the listeners; must not reject tasks
+	 */
+	public AsyncConsumer(Connector connector, Executor dispatcher) {
+		this.connector = connector;
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Open a queue and register a listener for its messages. May be called before or after {@link #start()}.
+	 * 
+	 * @param queueName
+	 * @param listener
+	 * @return The registration, used to suspend, resume or remove the listener
+	 * @throws MQException
+	 */
+	public Registration register(String queueName, MQMessageListener listener) throws MQException, Exception {
+		Registration registration = new Registration(queueName, listener);
+		registration.open();
+		this.registrations.add(registration);
+		this.wake();
+		return registration;
+	}
+
+	/**
+	 * Start the receiver thread
+	 */
+	public synchronized void start() {
+		if (this.running) {
+			return;
+		}
+		this.running = true;
+		this.receiver = new Thread(this::receive, "AsyncConsumer-" + this.connector.getQueueManagerName());
+		this.receiver.setDaemon(true);
+		this.receiver.start();
+	}
+
+	/**
+	 * Stop getting messages and close the queues. Listeners already running are allowed to finish.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public synchronized void stop() throws InterruptedException {
+		if (!this.running) {
+			return;
+		}
+		this.running = false;
+		LockSupport.unpark(this.receiver);
+		this.receiver.join();
+		this.receiver = null;
+		for (Registration registration : this.registrations) {
+			registration.input.close();
+			if (registration.removed) {
+				this.registrations.remove(registration);
+			}
+		}
+	}
+
+	/**
+	 * Stop getting messages from all queues until {@link #resume()} is called. The queues stay open.
+	 */
+	public void suspend() {
+		this.suspended = true;
+	}
+
+	/**
+	 * Resume getting messages after {@link #suspend()}
+	 */
+	public void resume() {
+		this.suspended = false;
+		this.wake();
+	}
+
+	/**
+	 * Set how often empty queues are polled
+	 * 
+	 * @param minPollInterval Delay (milliseconds) after the first empty poll
+	 * @param maxPollInterval Longest delay (milliseconds) between polls of an idle queue
+	 */
+	public void setPollInterval(long minPollInterval, long maxPollInterval) {
+		this.minPollInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(1, minPollInterval));
+		this.maxPollInterval = TimeUnit.MILLISECONDS.toNanos(Math.max(minPollInterval, maxPollInterval));
+	}
+
+	private void wake() {
+		Thread thread = this.receiver;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Receiver thread. Polls each queue that is due, then sleeps until the next queue is due or a listener finishes.
+	 */
+	private void receive() {
+		long generation = this.connector.getConnectionGeneration();
+		while (this.running) {
+			long now = System.nanoTime();
+			long nextDue = now + this.maxPollInterval;
+			boolean gotMessage = false;
+
+			if (!this.suspended) {
+				try {
+					if (generation != this.connector.getConnectionGeneration()) {
+						// Another user of the connector re-established the connection
+						generation = this.connector.getConnectionGeneration();
+						this.reopenAll();
+					}
+					for (Registration registration : this.registrations) {
+						if (registration.removed) {
+							this.registrations.remove(registration);
+							registration.input.close();
+							continue;
+						}
+						if (registration.suspended || registration.busy) {
+							continue;
+						}
+						if (registration.nextPoll - now > 0) {
+							nextDue = nextDue - registration.nextPoll > 0 ? registration.nextPoll : nextDue;
+							continue;
+						}
+						boolean got;
+						try {
+							got = registration.poll(now);
+						} catch (MQException e) {
+							if (Connector.isConnectionError(e.reasonCode)) {
+								throw e;
+							}
+							// For example, get inhibited or the queue deleted; do not hold up the other queues
+							registration.failed(e, now);
+							got = false;
+						}
+						if (got) {
+							gotMessage = true;
+						} else {
+							nextDue = nextDue - registration.nextPoll > 0 ? registration.nextPoll : nextDue;
+						}
+					}
+				} catch (MQException e) {
+					this.lastError = e;
+					if (Connector.isConnectionError(e.reasonCode)) {
+						try {
+							this.connector.recover(generation);
+							generation = this.connector.getConnectionGeneration();
+							this.reopenAll();
+						} catch (Exception e1) {
+							// Try again after the longest poll interval; the circuit breaker limits the attempts
+							this.lastError = e1;
+						}
+					}
+				} catch (Exception e) {
+					this.lastError = e;
+				}
+			}
+
+			if (!gotMessage) {
+				long sleep = nextDue - System.nanoTime();
+				if (sleep > 0) {
+					LockSupport.parkNanos(this, sleep);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Re-open every queue on the re-established connection
+	 * 
+	 * @throws Exception
+	 */
+	private void reopenAll() throws Exception {
+		for (Registration registration : this.registrations) {
+			registration.open();
+		}
+	}
+
+	public long getDispatchedCount() {
+		return this.dispatchedCount.get();
+	}
+
+	public long getListenerErrorCount() {
+		return this.listenerErrorCount.get();
+	}
+
+	/**
+	 * Return the number of messages lost because the dispatch executor rejected them
+	 * 
+	 * @return
+	 */
+	public long getRejectedCount() {
+		return this.rejectedCount.get();
+	}
+
+	/**
+	 * Return the last error from a get or a listener, or null
+	 * 
+	 * @return
+	 */
+	public Throwable getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * A queue and its listener
+	 */
+	public final class Registration {
+		private final String queueName;
+		private final MQMessageListener listener;
+		private InputQueueGet input = null;
+		private volatile boolean suspended = false;
+		private volatile boolean busy = false;
+		private volatile boolean removed = false;
+		private volatile Throwable lastError = null;
+		private long nextPoll = System.nanoTime();
+		private int emptyPolls = 0;
+
+		Registration(String queueName, MQMessageListener listener) {
+			this.queueName = queueName;
+			this.listener = listener;
+		}
+
+		private void open() throws MQException, Exception {
+			if (this.input != null) {
+				this.input.close();
+			}
+			this.input = new InputQueueGet(connector, this.queueName);
+		}
+
+		/**
+		 * Get the next message without waiting and dispatch it
+		 * 
+		 * @param now
+		 * @return true if a message was got
+		 * @throws MQException
+		 */
+		private boolean poll(long now) throws MQException, Exception {
+			MQMessage message = this.input.getNextWithConvert(false, 0, null);
+			if (message == null) {
+				// Back off exponentially while the queue stays empty
+				this.emptyPolls = Math.min(this.emptyPolls + 1, 30);
+				long delay = Math.min(minPollInterval << (this.emptyPolls - 1), maxPollInterval);
+				this.nextPoll = now + (delay > 0 ? delay : maxPollInterval);
+				return false;
+			}
+			this.emptyPolls = 0;
+			this.nextPoll = now;
+			this.busy = true;
+			try {
+				dispatcher.execute(() -> this.dispatch(message));
+			} catch (RejectedExecutionException e) {
+				rejectedCount.incrementAndGet();
+				lastError = e;
+				this.busy = false;
+				this.nextPoll = now + maxPollInterval;
+				return false;
+			}
+			dispatchedCount.incrementAndGet();
+			return true;
+		}
+
+		/**
+		 * Record a failed poll and leave the queue until the maximum poll interval has passed
+		 * 
+		 * @param e
+		 * @param now
+		 */
+		private void failed(MQException e, long now) {
+			this.lastError = e;
+			AsyncConsumer.this.lastError = e;
+			this.emptyPolls = 0;
+			this.nextPoll = now + maxPollInterval;
+		}
+
+		private void dispatch(MQMessage message) {
+			try {
+				this.listener.onMessage(this.queueName, message);
+			} catch (Throwable t) {
+				listenerErrorCount.incrementAndGet();
+				lastError = t;
+			} finally {
+				this.busy = false;
+				wake();
+			}
+		}
+
+		/**
+		 * Stop getting messages from this queue until {@link #resume()} is called
+		 */
+		public void suspend() {
+			this.suspended = true;
+		}
+
+		public void resume() {
+			this.suspended = false;
+			this.nextPoll = System.nanoTime();
+			wake();
+		}
+
+		public boolean isSuspended() {
+			return this.suspended;
+		}
+
+		public String getQueueName() {
+			return this.queueName;
+		}
+
+		/**
+		 * Return the last error getting from this queue, or null
+		 * 
+		 * @return
+		 */
+		public Throwable getLastError() {
+			return this.lastError;
+		}
+
+		/**
+		 * Stop getting messages from this queue and close it. A message already in the listener is allowed to finish.
+		 */
+		public void remove() {
+			this.removed = true;
+			if (running) {
+				// The receiver thread closes the queue, so it is not closed during a get
+				wake();
+			} else {
+				registrations.remove(this);
+				this.input.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,44 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import com.ibm.mq.MQAsyncStatus;
+
+/**
+ * Receive the outcome of asynchronous puts. See {@link AsyncPutStatusMonitor}.
+ *
+ */
+public interface AsyncPutStatusListener {
+
+	/**
+	 * Called after each check that found asynchronous puts
+	 * 
+	 * @param connector
+	 *                  The connection the puts were made on
+	 * @param status
+	 *                  Counts of successful, warning and failed puts since the previous check. When there were failures
+	 *                  or warnings, reasonCode and objectName describe the first one.
+	 */
+	public void asyncPutStatus(Connector connector, MQAsyncStatus status);
+}
@@ -0,0 +1,182 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.mq.MQAsyncStatus;
+import com.ibm.mq.MQException;
+
+/**
+ * Periodically ask the queue manager for the outcome of asynchronous puts (MQSTAT) on each registered connection,
+ * keep running totals and pass each non-empty status to the listener. Each check resets the queue manager's counts, so
+ * only one monitor (or caller of {@link OutputQueue#checkAsyncPutStatus()}) should check a given connection.
+ *
+ * <pre>
+ * AsyncPutStatusMonitor monitor = new AsyncPutStatusMonitor((connector, status) -&gt; {
+ * 	if (status.putFailureCount &gt; 0)
+ * 		System.out.println(status.putFailureCount + " puts failed, reason " + status.reasonCode);
+ * });
+ * monitor.register(connector);
+ * monitor.start(1000);
+ * </pre>
+ *
+ */
+public class AsyncPutStatusMonitor {
+
+	private final AsyncPutStatusListener listener;
+
+	private final Map<Connector, Boolean> connectors = new ConcurrentHashMap<Connector, Boolean>();
+
+	private final AtomicLong successCount = new AtomicLong();
+
+	private final AtomicLong warningCount = new AtomicLong();
+
+	private final AtomicLong failureCount = new AtomicLong();
+
+	private ScheduledExecutorService scheduler = null;
+
+	/**
+	 * Create a new monitor
+	 *
+	 * @param listener
+	 *                 (Optional) Called with each status that contains puts. Specify null to only keep totals.
+	 */
+	public AsyncPutStatusMonitor(AsyncPutStatusListener listener) {
+		this.listener = listener;
+	}
+
+	public void register(Connector connector) {
+		this.connectors.put(connector, Boolean.TRUE);
+	}
+
+	/**
+	 * Stop monitoring a connection. Check it one last time first, so no outcomes are missed.
+	 *
+	 * @param connector
+	 */
+	public void unregister(Connector connector) {
+		this.check(connector);
+		this.connectors.remove(connector);
+	}
+
+	/**
+	 * Start checking the registered connections
+	 *
+	 * @param interval
+	 *                 Time (milliseconds) between checks
+	 */
+	public synchronized void start(long interval) {
+		if (this.scheduler != null) {
+			return;
+		}
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "AsyncPutStatusMonitor");
+			t.setDaemon(true);
+			return t;
+		});
+		this.scheduler.scheduleWithFixedDelay(this::checkAll, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop checking, after one final check of every connection
+	 */
+	public synchronized void stop() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+			this.scheduler = null;
+		}
+		this.checkAll();
+	}
+
+	/**
+	 * Check every registered connection now
+	 */
+	public void checkAll() {
+		for (Connector connector : this.connectors.keySet()) {
+			this.check(connector);
+		}
+	}
+
+	/**
+	 * Check one connection
+	 *
+	 * @param connector
+	 */
+	private void check(Connector connector) {
+		if (!connector.isConnected()) {
+			return;
+		}
+
+		MQAsyncStatus status;
+		try {
+			status = connector.getQueueManager().getAsyncStatus();
+		} catch (MQException e) {
+			return; // the connection is broken; the health check or next put will recover it
+		}
+
+		if (status.putSuccessCount == 0 && status.putWarningCount == 0 && status.putFailureCount == 0) {
+			return;
+		}
+		this.successCount.addAndGet(status.putSuccessCount);
+		this.warningCount.addAndGet(status.putWarningCount);
+		this.failureCount.addAndGet(status.putFailureCount);
+
+		if (this.listener != null) {
+			this.listener.asyncPutStatus(connector, status);
+		}
+	}
+
+	/**
+	 * Return the total number of asynchronous puts confirmed successful
+	 *
+	 * @return
+	 */
+	public long getSuccessCount() {
+		return successCount.get();
+	}
+
+	/**
+	 * Return the total number of asynchronous puts that completed with a warning
+	 *
+	 * @return
+	 */
+	public long getWarningCount() {
+		return warningCount.get();
+	}
+
+	/**
+	 * Return the total number of asynchronous puts that failed
+	 *
+	 * @return
+	 */
+	public long getFailureCount() {
+		return failureCount.get();
+	}
+}
@@ -0,0 +1,133 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Pool of reusable byte buffers, heap or direct, for reading message payloads without allocating a new array for
+ * each message. Buffers are kept in power of two size classes from 4KB up to the maximum pooled size; larger requests
+ * are allocated and not pooled. Large arrays allocated per message are costly for the garbage collector (in G1, an
+ * array of half a region or more is a humongous allocation), whereas pooled buffers are allocated once.
+ * 
+ * A buffer must be released once, and not used after it is released. See
+ * {@link Helper#extractMessagePayloadPooled(com.ibm.mq.MQMessage, ByteBufferPool)}.
+ *
+ */
+public class ByteBufferPool {
+
+	private static final int MIN_SHIFT = 12; // 4KB
+
+	private final boolean direct;
+
+	private final int maxPooledSize;
+
+	private final ArrayBlockingQueue<ByteBuffer>[] free;
+
+	/**
+	 * Create a new pool
+	 * 
+	 * @param direct          Allocate direct buffers rather than heap buffers
+	 * @param maxPooledSize   Largest buffer kept in the pool; rounded up to a power of two
+	 * @param maxPerSizeClass Most free buffers kept in each size class
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ByteBufferPool(boolean direct, int maxPooledSize, int maxPerSizeClass) {
+		this.direct = direct;
+		int classes = Math.max(1, sizeClass(maxPooledSize) + 1);
+		this.maxPooledSize = 1 << (MIN_SHIFT + classes - 1);
+		this.free = new ArrayBlockingQueue[classes];
+		for (int i = 0; i < classes; i++) {
+			this.free[i] = new ArrayBlockingQueue<ByteBuffer>(maxPerSizeClass);
+		}
+	}
+
+	/**
+	 * Return a cleared buffer with a capacity of at least the passed size
+	 * 
+	 * @param minCapacity
+	 * @return
+	 */
+	public ByteBuffer acquire(int minCapacity) {
+		if (minCapacity > this.maxPooledSize) {
+			return this.allocate(minCapacity);
+		}
+		int sizeClass = sizeClass(minCapacity);
+		ByteBuffer buffer = this.free[sizeClass].poll();
+		if (buffer == null) {
+			return this.allocate(1 << (MIN_SHIFT + sizeClass));
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Return a buffer to the pool. Buffers that are not from a pool of this kind, or that the pool has no room for, are
+	 * left for the garbage collector.
+	 * 
+	 * @param buffer
+	 */
+	public void release(ByteBuffer buffer) {
+		int capacity = buffer.capacity();
+		if (buffer.isDirect() != this.direct || capacity > this.maxPooledSize || Integer.bitCount(capacity) != 1 || capacity < 1 << MIN_SHIFT) {
+			return;
+		}
+		this.free[sizeClass(capacity)].offer(buffer);
+	}
+
+	/**
+	 * Return the index of the smallest size class that holds the passed size
+	 * 
+	 * @param size
+	 * @return
+	 */
+	private static int sizeClass(int size) {
+		if (size <= 1 << MIN_SHIFT) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		return this.direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+	}
+
+	public boolean isDirect() {
+		return direct;
+	}
+
+	/**
+	 * Return the number of free buffers held
+	 * 
+	 * @return
+	 */
+	public int getFreeCount() {
+		int count = 0;
+		for (ArrayBlockingQueue<ByteBuffer> queue : this.free) {
+			count += queue.size();
+		}
+		return count;
+	}
+}
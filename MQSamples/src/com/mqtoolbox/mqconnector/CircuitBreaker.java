@@ -0,0 +1,113 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+/**
+ * Stop repeated reconnect attempts to a queue manager that is down. After a number of consecutive failures the breaker
+ * opens and callers fail immediately. Once the open period has passed a single trial attempt is let through; if it
+ * succeeds the breaker closes again, otherwise it stays open for another period.
+ *
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN;
+	}
+
+	private final int failureThreshold;
+
+	private final long openPeriod;
+
+	private State state = State.CLOSED;
+
+	private int consecutiveFailures = 0;
+
+	private long openedAt = 0;
+
+	/**
+	 * Create a new circuit breaker
+	 *
+	 * @param failureThreshold
+	 *                         Consecutive failures before the breaker opens
+	 * @param openPeriod
+	 *                         How long (milliseconds) the breaker stays open before a trial attempt is allowed
+	 */
+	public CircuitBreaker(int failureThreshold, long openPeriod) {
+		this.failureThreshold = failureThreshold;
+		this.openPeriod = openPeriod;
+	}
+
+	/**
+	 * May an attempt be made now? When the open period has passed, the first caller is allowed through as the trial and
+	 * all others are refused until it reports the outcome.
+	 *
+	 * @return
+	 */
+	public synchronized boolean allowRequest() {
+		switch (this.state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if (System.currentTimeMillis() - this.openedAt >= this.openPeriod) {
+				this.state = State.HALF_OPEN;
+				return true;
+			}
+			return false;
+		default:
+			return false; // trial in progress
+		}
+	}
+
+	/**
+	 * Record a successful attempt
+	 */
+	public synchronized void recordSuccess() {
+		this.state = State.CLOSED;
+		this.consecutiveFailures = 0;
+	}
+
+	/**
+	 * Record a failed attempt
+	 */
+	public synchronized void recordFailure() {
+		this.consecutiveFailures++;
+		if (this.state == State.HALF_OPEN || this.consecutiveFailures >= this.failureThreshold) {
+			this.state = State.OPEN;
+			this.openedAt = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Is the breaker open; that is, are attempts currently being refused?
+	 *
+	 * @return
+	 */
+	public synchronized boolean isOpen() {
+		return this.state == State.OPEN && System.currentTimeMillis() - this.openedAt < this.openPeriod;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+}
@@ -0,0 +1,476 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read the client connection channels from a JSON CCDT (client channel definition table), such as
+ * AMQCLCHL_MANY_QMGRS.JSON. Only the attributes needed to connect directly to each channel entry are kept. The reader
+ * is lenient and accepts the trailing commas found in hand edited files.
+ *
+ */
+public class ClientChannelTable {
+
+	private final URL url;
+
+	private final List<ChannelEntry> channels = new ArrayList<ChannelEntry>();
+
+	/**
+	 * Load the JSON CCDT
+	 *
+	 * @param url
+	 *            URL of the CCDT. Example, "file:AMQCLCHL_MANY_QMGRS.JSON"
+	 * @throws IOException
+	 */
+	public ClientChannelTable(URL url) throws IOException {
+		this.url = url;
+		this.load();
+	}
+
+	/**
+	 * Return the URL the CCDT was loaded from
+	 *
+	 * @return
+	 */
+	public URL getUrl() {
+		return url;
+	}
+
+	/**
+	 * Return all client connection channels in the order they are defined
+	 *
+	 * @return
+	 */
+	public List<ChannelEntry> getChannels() {
+		return Collections.unmodifiableList(channels);
+	}
+
+	/**
+	 * Return the client connection channels for a queue manager name or queue manager group. A leading '*' (as used when
+	 * connecting to a group) is ignored.
+	 *
+	 * @param qmgrName
+	 * @return
+	 */
+	public List<ChannelEntry> getChannels(String qmgrName) {
+		String name = qmgrName.trim();
+		if (name.startsWith("*")) {
+			name = name.substring(1);
+		}
+		List<ChannelEntry> result = new ArrayList<ChannelEntry>();
+		for (ChannelEntry channel : this.channels) {
+			if (channel.getQueueManagerName().equals(name)) {
+				result.add(channel);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return the distinct queue manager (or queue manager group) names in the order they are defined
+	 *
+	 * @return
+	 */
+	public List<String> getQueueManagerNames() {
+		Set<String> names = new LinkedHashSet<String>();
+		for (ChannelEntry channel : this.channels) {
+			names.add(channel.getQueueManagerName());
+		}
+		return new ArrayList<String>(names);
+	}
+
+	/**
+	 * Read and parse the file
+	 *
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	private void load() throws IOException {
+		Object root;
+		InputStream is = this.url.openStream();
+		try {
+			root = new JsonParser(new InputStreamReader(is, StandardCharsets.UTF_8)).parse();
+		} finally {
+			is.close();
+		}
+
+		if (!(root instanceof Map) || !(((Map<String, Object>) root).get("channel") instanceof List)) {
+			throw new IOException("Not a JSON CCDT; 'channel' array missing: " + this.url);
+		}
+
+		for (Object item : (List<Object>) ((Map<String, Object>) root).get("channel")) {
+			if (!(item instanceof Map)) {
+				continue;
+			}
+			Map<String, Object> channel = (Map<String, Object>) item;
+			if (channel.get("type") != null && !"clientConnection".equals(channel.get("type"))) {
+				continue;
+			}
+			this.channels.add(new ChannelEntry(channel));
+		}
+	}
+
+	/**
+	 * One client connection channel
+	 *
+	 */
+	public static class ChannelEntry {
+		private String channelName = "";
+
+		private String queueManagerName = "";
+
+		private String description = "";
+
+		private List<String> hostNames = new ArrayList<String>();
+
+		private List<Integer> ports = new ArrayList<Integer>();
+
+		private int clientWeight = 0;
+
+		private String affinity = "preferred";
+
+		private int maximumMessageLength = 4194304;
+
+		private String cipherSpecification = "";
+
+		@SuppressWarnings("unchecked")
+		ChannelEntry(Map<String, Object> channel) {
+			this.channelName = asString(channel.get("name"), "");
+
+			Map<String, Object> clientConnection = asMap(channel.get("clientConnection"));
+			this.queueManagerName = asString(clientConnection.get("queueManager"), "");
+			if (clientConnection.get("connection") instanceof List) {
+				for (Object connection : (List<Object>) clientConnection.get("connection")) {
+					Map<String, Object> conn = asMap(connection);
+					this.hostNames.add(asString(conn.get("host"), "localhost"));
+					this.ports.add(asInt(conn.get("port"), 1414));
+				}
+			}
+
+			Map<String, Object> connectionManagement = asMap(channel.get("connectionManagement"));
+			this.clientWeight = asInt(connectionManagement.get("clientWeight"), 0);
+			this.affinity = asString(connectionManagement.get("affinity"), "preferred");
+
+			Map<String, Object> general = asMap(channel.get("general"));
+			this.description = asString(general.get("description"), "");
+			this.maximumMessageLength = asInt(general.get("maximumMessageLength"), 4194304);
+
+			Map<String, Object> transmissionSecurity = asMap(channel.get("transmissionSecurity"));
+			this.cipherSpecification = asString(transmissionSecurity.get("cipherSpecification"), "");
+		}
+
+		public String getChannelName() {
+			return channelName;
+		}
+
+		public String getQueueManagerName() {
+			return queueManagerName;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		/**
+		 * Return the host of the first connection entry
+		 *
+		 * @return
+		 */
+		public String getHostName() {
+			return hostNames.isEmpty() ? "localhost" : hostNames.get(0);
+		}
+
+		/**
+		 * Return the port of the first connection entry
+		 *
+		 * @return
+		 */
+		public int getPort() {
+			return ports.isEmpty() ? 1414 : ports.get(0);
+		}
+
+		public List<String> getHostNames() {
+			return Collections.unmodifiableList(hostNames);
+		}
+
+		public List<Integer> getPorts() {
+			return Collections.unmodifiableList(ports);
+		}
+
+		public int getClientWeight() {
+			return clientWeight;
+		}
+
+		public String getAffinity() {
+			return affinity;
+		}
+
+		public int getMaximumMessageLength() {
+			return maximumMessageLength;
+		}
+
+		public String getCipherSpecification() {
+			return cipherSpecification;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s %s(%d) -> %s", channelName, getHostName(), getPort(), queueManagerName);
+		}
+
+		@SuppressWarnings("unchecked")
+		private static Map<String, Object> asMap(Object value) {
+			return value instanceof Map ? (Map<String, Object>) value : Collections.<String, Object>emptyMap();
+		}
+
+		private static String asString(Object value, String defaultValue) {
+			return value == null ? defaultValue : value.toString().trim();
+		}
+
+		private static int asInt(Object value, int defaultValue) {
+			if (value instanceof Number) {
+				return ((Number) value).intValue();
+			}
+			try {
+				return value == null ? defaultValue : Integer.parseInt(value.toString().trim());
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+	}
+
+	/**
+	 * Minimal JSON parser returning Map, List, String, Number, Boolean or null. Trailing commas are accepted.
+	 *
+	 */
+	private static final class JsonParser {
+		private final Reader reader;
+
+		private int current = -2; // -2 = nothing read yet, -1 = end of input
+
+		JsonParser(Reader reader) {
+			this.reader = reader;
+		}
+
+		Object parse() throws IOException {
+			Object value = this.readValue();
+			if (this.peek() != -1) {
+				throw this.error("Unexpected data after JSON value");
+			}
+			return value;
+		}
+
+		private Object readValue() throws IOException {
+			int c = this.peek();
+			switch (c) {
+			case '{':
+				return this.readObject();
+			case '[':
+				return this.readArray();
+			case '"':
+				return this.readString();
+			case 't':
+				this.expectWord("true");
+				return Boolean.TRUE;
+			case 'f':
+				this.expectWord("false");
+				return Boolean.FALSE;
+			case 'n':
+				this.expectWord("null");
+				return null;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					return this.readNumber();
+				}
+				throw this.error("Unexpected character '" + (char) c + "'");
+			}
+		}
+
+		private Map<String, Object> readObject() throws IOException {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			this.next(); // {
+			while (true) {
+				int c = this.peek();
+				if (c == '}') {
+					this.next();
+					return map;
+				}
+				if (c != '"') {
+					throw this.error("Expected property name");
+				}
+				String name = this.readString();
+				if (this.peek() != ':') {
+					throw this.error("Expected ':'");
+				}
+				this.next();
+				map.put(name, this.readValue());
+				c = this.peek();
+				if (c == ',') {
+					this.next();
+				} else if (c != '}') {
+					throw this.error("Expected ',' or '}'");
+				}
+			}
+		}
+
+		private List<Object> readArray() throws IOException {
+			List<Object> list = new ArrayList<Object>();
+			this.next(); // [
+			while (true) {
+				int c = this.peek();
+				if (c == ']') {
+					this.next();
+					return list;
+				}
+				list.add(this.readValue());
+				c = this.peek();
+				if (c == ',') {
+					this.next();
+				} else if (c != ']') {
+					throw this.error("Expected ',' or ']'");
+				}
+			}
+		}
+
+		private String readString() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			this.next(); // opening quote
+			while (true) {
+				int c = this.read();
+				if (c == -1) {
+					throw this.error("Unterminated string");
+				} else if (c == '"') {
+					return sb.toString();
+				} else if (c == '\\') {
+					c = this.read();
+					switch (c) {
+					case 'n':
+						sb.append('\n');
+						break;
+					case 't':
+						sb.append('\t');
+						break;
+					case 'r':
+						sb.append('\r');
+						break;
+					case 'b':
+						sb.append('\b');
+						break;
+					case 'f':
+						sb.append('\f');
+						break;
+					case 'u':
+						char[] hex = new char[4];
+						for (int i = 0; i < 4; i++) {
+							hex[i] = (char) this.read();
+						}
+						sb.append((char) Integer.parseInt(new String(hex), 16));
+						break;
+					default:
+						sb.append((char) c);
+					}
+				} else {
+					sb.append((char) c);
+				}
+			}
+		}
+
+		private Number readNumber() throws IOException {
+			StringBuilder sb = new StringBuilder();
+			int c = this.peek();
+			while (c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E' || (c >= '0' && c <= '9')) {
+				sb.append((char) this.read());
+				c = this.current;
+			}
+			String number = sb.toString();
+			try {
+				if (number.indexOf('.') < 0 && number.indexOf('e') < 0 && number.indexOf('E') < 0) {
+					return Long.valueOf(number);
+				}
+				return Double.valueOf(number);
+			} catch (NumberFormatException e) {
+				throw this.error("Invalid number " + number);
+			}
+		}
+
+		private void expectWord(String word) throws IOException {
+			this.skipWhitespace();
+			for (int i = 0; i < word.length(); i++) {
+				if (this.read() != word.charAt(i)) {
+					throw this.error("Expected " + word);
+				}
+			}
+		}
+
+		/**
+		 * Return the next non-whitespace character without consuming it
+		 */
+		private int peek() throws IOException {
+			this.skipWhitespace();
+			return this.current;
+		}
+
+		private void next() throws IOException {
+			this.current = this.reader.read();
+		}
+
+		/**
+		 * Consume and return the current character
+		 */
+		private int read() throws IOException {
+			if (this.current == -2) {
+				this.next();
+			}
+			int c = this.current;
+			this.next();
+			return c;
+		}
+
+		private void skipWhitespace() throws IOException {
+			if (this.current == -2) {
+				this.next();
+			}
+			while (this.current == ' ' || this.current == '\t' || this.current == '\n' || this.current == '\r') {
+				this.next();
+			}
+		}
+
+		private IOException error(String msg) {
+			return new IOException("Invalid JSON CCDT: " + msg);
+		}
+	}
+}
@@ -25,13 +25,20 @@ package com.mqtoolbox.mqconnector;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Hashtable;
+
+import javax.net.ssl.SSLSocketFactory;
 
 import com.ibm.mq.MQEnvironment;
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.MQConstants;
 
 /**
- * Manage a client connection to a queue manager
+ * Manage a client connection to a queue manager. The constructors taking a jksFileName set the connection details in
+ * the JVM wide MQEnvironment and javax.net.ssl system properties, so only one queue manager can be connected to at a
+ * time. The constructors taking a Hashtable of connection properties keep the details (including the SSL socket
+ * factory) with this object, so connections to many queue managers can be made in parallel.
  * 
  */
 public class ClientConnector extends Connector {
@@ -39,6 +46,7 @@ public class ClientConnector extends Connector {
 	private MQQueueManager queueManager = null;
 	private String queueManagerName = "";
 	private URL clientChannelDefinitionTable = null;
+	private Hashtable<String, Object> connectionProperties = null;
 
 	/**
 	 * Connect as a client using the specified connection details
@@ -131,6 +139,73 @@ public class ClientConnector extends Connector {
 		this.connect(qmgrName, clientChannelDefinitionTableURL, jksFileName, jksPassword);
 	}
 
+	/**
+	 * Connect as a client using the passed connection properties. The properties are only used by this connection, so
+	 * many connections can be created in parallel. See {@link #createConnectionProperties}.
+	 * 
+	 * @param qmgrName
+	 *                             Queue manager to connect to
+	 * @param connectionProperties
+	 *                             Connection properties, for example MQConstants.CHANNEL_PROPERTY,
+	 *                             MQConstants.HOST_NAME_PROPERTY, MQConstants.PORT_PROPERTY and
+	 *                             MQConstants.SSL_SOCKET_FACTORY_PROPERTY
+	 * @throws MQException
+	 */
+	public ClientConnector(String qmgrName, Hashtable<String, Object> connectionProperties) throws MQException {
+		this.connect(qmgrName, null, connectionProperties);
+	}
+
+	/**
+	 * Connect as a client using a client channel definition table and the passed connection properties. The properties
+	 * are only used by this connection, so many connections can be created in parallel.
+	 * 
+	 * @param qmgrName
+	 *                                     Queue manager to connect to
+	 * @param clientChannelDefinitionTable
+	 *                                     URL of the CCDT. Example, "file:///c:/mq/AMQCLCHL.TAB"
+	 * @param connectionProperties
+	 *                                     Connection properties, for example MQConstants.SSL_SOCKET_FACTORY_PROPERTY
+	 * @throws MQException
+	 */
+	public ClientConnector(String qmgrName, URL clientChannelDefinitionTable, Hashtable<String, Object> connectionProperties)
+			throws MQException {
+		this.connect(qmgrName, clientChannelDefinitionTable, connectionProperties);
+	}
+
+	/**
+	 * Build the connection properties for a client connection. Nothing is set in MQEnvironment or the system properties.
+	 * 
+	 * @param channelName
+	 *                         SVRCONN channel name
+	 * @param hostName
+	 *                         Hostname or IP of the server hosting the queue manager
+	 * @param port
+	 *                         Listener port
+	 * @param sslSocketFactory
+	 *                         (Optional) For SSL connections specify the socket factory, for example from
+	 *                         SSLContext.getSocketFactory(). For non-SSL connections specify null.
+	 * @param sslCipherSuite
+	 *                         (Optional) For SSL connections specify the CipherSuite matching the channel's CipherSpec.
+	 *                         For non-SSL connections specify null.
+	 * @return
+	 */
+	public static Hashtable<String, Object> createConnectionProperties(String channelName, String hostName, int port,
+			SSLSocketFactory sslSocketFactory, String sslCipherSuite) {
+		Hashtable<String, Object> props = new Hashtable<String, Object>();
+		props.put(MQConstants.TRANSPORT_PROPERTY, MQConstants.TRANSPORT_MQSERIES_CLIENT);
+		props.put(MQConstants.USER_ID_PROPERTY, System.getProperty("user.name"));
+		props.put(MQConstants.CHANNEL_PROPERTY, channelName);
+		props.put(MQConstants.HOST_NAME_PROPERTY, hostName);
+		props.put(MQConstants.PORT_PROPERTY, port);
+		if (sslSocketFactory != null) {
+			props.put(MQConstants.SSL_SOCKET_FACTORY_PROPERTY, sslSocketFactory);
+		}
+		if (sslCipherSuite != null) {
+			props.put(MQConstants.SSL_CIPHER_SUITE_PROPERTY, sslCipherSuite);
+		}
+		return props;
+	}
+
 	/**
 	 * Connect as a client using a client channel definition table
 	 * 
@@ -224,8 +299,32 @@ public class ClientConnector extends Connector {
 		// qmgr = new MQQueueManager(qmgrName);
 	}
 
+	/**
+	 * Connect as a client using per connection properties
+	 * 
+	 * @param qmgrName
+	 * @param clientChannelDefinitionTable
+	 *                                     (Optional) URL of the CCDT
+	 * @param connectionProperties
+	 * @throws MQException
+	 */
+	private final void connect(String qmgrName, URL clientChannelDefinitionTable, Hashtable<String, Object> connectionProperties)
+			throws MQException {
+		this.queueManagerName = qmgrName.trim();
+		this.clientChannelDefinitionTable = clientChannelDefinitionTable;
+		// Take a copy so later changes by the caller do not affect a reconnect
+		this.connectionProperties = new Hashtable<String, Object>(connectionProperties);
+		this.connect();
+	}
+
 	private void connect() throws MQException {
-		if (this.clientChannelDefinitionTable != null) {
+		if (this.connectionProperties != null) {
+			if (this.clientChannelDefinitionTable != null) {
+				this.queueManager = new MQQueueManager(this.queueManagerName, this.connectionProperties, this.clientChannelDefinitionTable);
+			} else {
+				this.queueManager = new MQQueueManager(this.queueManagerName, this.connectionProperties);
+			}
+		} else if (this.clientChannelDefinitionTable != null) {
 			this.queueManager = new MQQueueManager(this.queueManagerName, this.clientChannelDefinitionTable);
 		} else {
 			this.queueManager = new MQQueueManager(this.queueManagerName);
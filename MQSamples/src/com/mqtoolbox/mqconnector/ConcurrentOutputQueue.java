@@ -0,0 +1,313 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQMessage;
+
+/**
+ * Output queue that can be used from many threads at once. An {@link OutputQueue} holds the message it last sent and
+ * a single queue handle, so it must only be used by one thread. This class holds a number of stripes, each with its own
+ * connection and OutputQueue, and a lock. A sending thread uses the stripe chosen by its thread id, or any free stripe
+ * if that one is busy, so threads only wait when every stripe is in use.
+ * 
+ * The send methods return the message id of the message sent, in place of {@link OutputQueue#getSentMessage()}.
+ * 
+ * <pre>
+ * ConcurrentOutputQueue out = new ConcurrentOutputQueue(() -&gt; new BindConnector("QMGR1"), "ZTEST.QMGR1.QL", 8);
+ * byte[] messageId = out.sendDatagramMessage(payload, -1);
+ * out.close();
+ * </pre>
+ * 
+ * A stripe count of around a quarter to a half of the number of producer threads is usually enough. The factory
+ * should create a new connection for each stripe; stripes sharing a connection also share its conversation, so their
+ * puts are serialised.
+ *
+ */
+public class ConcurrentOutputQueue {
+
+	private final Stripe[] stripes;
+
+	private volatile String messageFormat = null;
+
+	/**
+	 * Create a new concurrent output queue. Each stripe is connected and its queue opened.
+	 * 
+	 * @param connectorFactory Creates a connector for each stripe
+	 * @param queueName        Queue to send to
+	 * @param stripeCount      Number of stripes
+	 * @throws MQException
+	 */
+	public ConcurrentOutputQueue(ConnectorFactory connectorFactory, String queueName, int stripeCount) throws MQException {
+		this(connectorFactory, queueName, null, stripeCount);
+	}
+
+	/**
+	 * Create a new concurrent output queue on a different queue manager to the connected-to queue manager. Each stripe is
+	 * connected and its queue opened.
+	 * 
+	 * @param connectorFactory       Creates a connector for each stripe
+	 * @param queueName              Queue to send to
+	 * @param remoteQueueManagerName Queue manager that owns the queue, or null for a local or cluster queue
+	 * @param stripeCount            Number of stripes
+	 * @throws MQException
+	 */
+	public ConcurrentOutputQueue(ConnectorFactory connectorFactory, String queueName, String remoteQueueManagerName, int stripeCount)
+			throws MQException {
+		if (stripeCount < 1) {
+			throw new IllegalArgumentException("stripeCount must be at least 1");
+		}
+		this.stripes = new Stripe[stripeCount];
+		try {
+			for (int i = 0; i < stripeCount; i++) {
+				Connector connector = connectorFactory.create();
+				try {
+					OutputQueue outputQueue = remoteQueueManagerName == null || remoteQueueManagerName.isEmpty()
+							? new OutputQueue(connector, queueName)
+							: new OutputQueue(connector, queueName, remoteQueueManagerName);
+					this.stripes[i] = new Stripe(connector, outputQueue);
+				} catch (MQException e) {
+					disconnectQuietly(connector);
+					throw e;
+				}
+			}
+		} catch (MQException e) {
+			// Do not leave the stripes already created connected
+			this.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Send a datagram message and return its message id
+	 * 
+	 * @param datagramMessage
+	 * @param expiryTime
+	 * @return
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	public byte[] sendDatagramMessage(byte[] datagramMessage, int expiryTime) throws IOException, MQException {
+		Stripe stripe = this.acquire();
+		try {
+			stripe.outputQueue.sendDatagramMessage(datagramMessage, expiryTime);
+			return stripe.sentMessageId();
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Send a datagram message and return its message id. The passed message is updated with the fields set by the put.
+	 * 
+	 * @param datagramMessage
+	 * @return
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	public byte[] sendDatagramMessage(MQMessage datagramMessage) throws IOException, MQException {
+		Stripe stripe = this.acquire();
+		try {
+			stripe.outputQueue.sendDatagramMessage(datagramMessage);
+			return stripe.sentMessageId();
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Send a request message and return its message id, which the reply will carry as its correlation id
+	 * 
+	 * @param requestMessage
+	 * @param replyToQueueName
+	 * @param expiryTime
+	 * @return
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	public byte[] sendRequestMessage(byte[] requestMessage, String replyToQueueName, int expiryTime) throws IOException, MQException {
+		Stripe stripe = this.acquire();
+		try {
+			stripe.outputQueue.sendRequestMessage(requestMessage, replyToQueueName, expiryTime);
+			return stripe.sentMessageId();
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Send a reply message and return its message id
+	 * 
+	 * @param replyMessage
+	 * @param expiryTime
+	 * @param setCorrelationId
+	 * @return
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	public byte[] sendReplyMessage(byte[] replyMessage, int expiryTime, byte[] setCorrelationId) throws IOException, MQException {
+		Stripe stripe = this.acquire();
+		try {
+			stripe.outputQueue.sendReplyMessage(replyMessage, expiryTime, setCorrelationId);
+			return stripe.sentMessageId();
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Lock and return a stripe. The thread's own stripe is tried first, then any other free stripe; if all are busy the
+	 * thread waits for its own.
+	 * 
+	 * @return
+	 */
+	private Stripe acquire() {
+		int home = (int) (Thread.currentThread().getId() % this.stripes.length);
+		for (int i = 0; i < this.stripes.length; i++) {
+			Stripe stripe = this.stripes[(home + i) % this.stripes.length];
+			if (stripe.lock.tryLock()) {
+				return this.prepare(stripe);
+			}
+		}
+		Stripe stripe = this.stripes[home];
+		stripe.lock.lock();
+		return this.prepare(stripe);
+	}
+
+	/**
+	 * Apply the settings that OutputQueue clears after each send to the locked stripe
+	 * 
+	 * @param stripe
+	 * @return
+	 */
+	private Stripe prepare(Stripe stripe) {
+		String format = this.messageFormat;
+		if (format != null) {
+			stripe.outputQueue.setOverrideFormat(format);
+		}
+		return stripe;
+	}
+
+	/**
+	 * Reuse the message and put options on each stripe. See {@link OutputQueue#setReuseMessage(boolean)}.
+	 * 
+	 * @param reuseMessage
+	 */
+	public void setReuseMessage(boolean reuseMessage) {
+		for (Stripe stripe : this.stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.outputQueue.setReuseMessage(reuseMessage);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Set the MQMD message format for every message sent from now on, whichever stripe sends it. Unlike
+	 * {@link OutputQueue#setOverrideFormat(String)}, the format is not cleared after a send. Specify null to return to
+	 * each send method's default format.
+	 * 
+	 * @param messageFormat
+	 */
+	public void setMessageFormat(String messageFormat) {
+		this.messageFormat = messageFormat;
+	}
+
+	public String getMessageFormat() {
+		return messageFormat;
+	}
+
+	/**
+	 * Set how puts are retried on each stripe. See {@link OutputQueue#setPutRetry(int, long, long)}.
+	 * 
+	 * @param maxPutRetries
+	 * @param initialRetryBackoff
+	 * @param maxRetryBackoff
+	 */
+	public void setPutRetry(int maxPutRetries, long initialRetryBackoff, long maxRetryBackoff) {
+		for (Stripe stripe : this.stripes) {
+			stripe.lock.lock();
+			try {
+				stripe.outputQueue.setPutRetry(maxPutRetries, initialRetryBackoff, maxRetryBackoff);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	public int getStripeCount() {
+		return this.stripes.length;
+	}
+
+	/**
+	 * Close the queue and disconnect each stripe, waiting for any send in progress to finish
+	 */
+	public void close() {
+		for (Stripe stripe : this.stripes) {
+			if (stripe == null) {
+				continue;
+			}
+			stripe.lock.lock();
+			try {
+				stripe.outputQueue.close();
+				disconnectQuietly(stripe.connector);
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+	}
+
+	private static void disconnectQuietly(Connector connector) {
+		try {
+			connector.disconnect();
+		} catch (MQException e) {
+			// Ignore any errors
+		}
+	}
+
+	private static final class Stripe {
+		private final ReentrantLock lock = new ReentrantLock();
+		private final Connector connector;
+		private final OutputQueue outputQueue;
+
+		Stripe(Connector connector, OutputQueue outputQueue) {
+			this.connector = connector;
+			this.outputQueue = outputQueue;
+		}
+
+		/**
+		 * Return a copy of the id of the message just sent, as the message may be reused by the next send
+		 * 
+		 * @return
+		 */
+		byte[] sentMessageId() {
+			return this.outputQueue.getSentMessage().messageId.clone();
+		}
+	}
+}
@@ -0,0 +1,417 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.mq.MQException;
+
+/**
+ * Open connections and queue handles to a set of queue managers in parallel, typically at application start up, so
+ * that the first requests do not pay the connect cost. Each target is connected the requested number of times on an
+ * executor and the connect and open latency of every connection is reported. If any connection fails, or the deadline
+ * passes, the warm-up stops and every connection it opened is disconnected (or released, when warming up a pool).
+ *
+ * <pre>
+ * ConnectionWarmUp warmUp = new ConnectionWarmUp();
+ * warmUp.addTargets(new URL("file:AMQCLCHL_MANY_QMGRS.JSON"), new Hashtable&lt;String, Object&gt;(), 2, "ZTEST.QMGR1.QL");
+ * for (ConnectionWarmUp.Result result : warmUp.warmUp(pool, 10000)) {
+ * 	System.out.println(result);
+ * }
+ * </pre>
+ *
+ * Client connections should use the Hashtable connection properties of {@link ClientConnector}; connectors that set
+ * MQEnvironment cannot safely be created in parallel.
+ *
+ */
+public class ConnectionWarmUp {
+
+	private final List<Target> targets = new ArrayList<Target>();
+
+	private int parallelism = 16;
+
+	/**
+	 * Add a target to warm up
+	 *
+	 * @param key
+	 *                    Name of the target. When warming up a pool this is the pool key.
+	 * @param factory
+	 *                    Used to create each connection
+	 * @param connections
+	 *                    Number of connections to open. When warming up a pool, this must not exceed the pool's
+	 *                    maximum size.
+	 * @param queueNames
+	 *                    (Optional) Queues to open for output on each connection
+	 */
+	public void addTarget(String key, ConnectorFactory factory, int connections, String... queueNames) {
+		if (connections < 0) {
+			throw new IllegalArgumentException("connections must not be negative");
+		}
+		this.targets.add(new Target(key, factory, connections, queueNames));
+	}
+
+	/**
+	 * Add one target for each queue manager defined in a JSON CCDT
+	 *
+	 * @param clientChannelDefinitionTable
+	 *                                     URL of the JSON CCDT. Example, "file:AMQCLCHL_MANY_QMGRS.JSON"
+	 * @param connectionProperties
+	 *                                     Connection properties for each connection, for example the SSL socket factory.
+	 *                                     May be empty.
+	 * @param connections
+	 *                                     Number of connections to open to each queue manager
+	 * @param queueNames
+	 *                                     (Optional) Queues to open for output on each connection
+	 * @throws IOException
+	 */
+	public void addTargets(final URL clientChannelDefinitionTable, final Hashtable<String, Object> connectionProperties, int connections,
+			String... queueNames) throws IOException {
+		ClientChannelTable ccdt = new ClientChannelTable(clientChannelDefinitionTable);
+		for (final String qmgrName : ccdt.getQueueManagerNames()) {
+			String key = MQConnectionPool.createKey(qmgrName, "ccdt", clientChannelDefinitionTable);
+			this.addTarget(key, new ConnectorFactory() {
+				public Connector create() throws MQException {
+					return new ClientConnector(qmgrName, clientChannelDefinitionTable, connectionProperties);
+				}
+			}, connections, queueNames);
+		}
+	}
+
+	/**
+	 * Set the maximum number of connections opened at the same time. Defaults to 16.
+	 *
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Open all connections and queue handles. The connections (with the queues still open) are returned to the caller,
+	 * who is responsible for closing them.
+	 *
+	 * @param deadline
+	 *                 Maximum time (milliseconds) allowed for the whole warm-up
+	 * @return One result per connection
+	 * @throws MQException
+	 *                              The first connect or open failure
+	 * @throws TimeoutException
+	 *                              The deadline passed before all connections were opened
+	 * @throws InterruptedException
+	 */
+	public List<Result> warmUp(long deadline) throws MQException, TimeoutException, InterruptedException {
+		return this.run(null, deadline);
+	}
+
+	/**
+	 * Open all connections in the pool. The queue handles are opened to check the queues are available and then closed,
+	 * and the connections are released to the pool under the target key. If other threads hold connections for a key,
+	 * the warm-up waits for them until the deadline.
+	 *
+	 * @param pool
+	 * @param deadline
+	 *                 Maximum time (milliseconds) allowed for the whole warm-up
+	 * @return One result per connection
+	 * @throws MQException
+	 *                              The first connect or open failure
+	 * @throws TimeoutException
+	 *                              The deadline passed before all connections were opened
+	 * @throws InterruptedException
+	 */
+	public List<Result> warmUp(MQConnectionPool pool, long deadline) throws MQException, TimeoutException, InterruptedException {
+		for (Target target : this.targets) {
+			if (target.connections > pool.getMaxSize()) {
+				throw new IllegalArgumentException("Target " + target.key + " asks for " + target.connections
+						+ " connections but the pool holds at most " + pool.getMaxSize() + " per key");
+			}
+		}
+		return this.run(pool, deadline);
+	}
+
+	/**
+	 * Run the warm-up
+	 *
+	 * @param pool
+	 *                 (Optional) Pool to borrow connections from
+	 * @param deadline
+	 * @return
+	 * @throws MQException
+	 * @throws TimeoutException
+	 * @throws InterruptedException
+	 */
+	private List<Result> run(final MQConnectionPool pool, long deadline) throws MQException, TimeoutException, InterruptedException {
+		final long endTime = System.currentTimeMillis() + deadline;
+		final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+		final Aborted aborted = new Aborted();
+
+		int tasks = 0;
+		for (Target target : this.targets) {
+			tasks += target.connections;
+		}
+		if (tasks == 0) {
+			return results;
+		}
+
+		final AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks, this.parallelism), r -> {
+			Thread t = new Thread(r, "ConnectionWarmUp-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		ExecutorCompletionService<Result> completion = new ExecutorCompletionService<Result>(executor);
+		List<Future<Result>> futures = new ArrayList<Future<Result>>();
+
+		try {
+			for (final Target target : this.targets) {
+				for (int i = 1; i <= target.connections; i++) {
+					final int index = i;
+					futures.add(completion.submit(new Callable<Result>() {
+						public Result call() throws Exception {
+							Result result = ConnectionWarmUp.this.connect(target, index, pool, endTime);
+							// The warm-up may have been abandoned while this connection was being made
+							synchronized (aborted) {
+								if (aborted.value) {
+									result.discard(pool);
+									return result;
+								}
+								results.add(result);
+							}
+							return result;
+						}
+					}));
+				}
+			}
+
+			for (int i = 0; i < tasks; i++) {
+				long remaining = endTime - System.currentTimeMillis();
+				Future<Result> done = remaining > 0 ? completion.poll(remaining, TimeUnit.MILLISECONDS) : null;
+				if (done == null) {
+					throw new TimeoutException("Connection warm-up did not complete within " + deadline + " ms");
+				}
+				try {
+					done.get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof MQException) {
+						throw (MQException) e.getCause();
+					}
+					throw new IllegalStateException("Connection warm-up failed", e.getCause());
+				}
+			}
+		} catch (MQException | TimeoutException | InterruptedException | RuntimeException e) {
+			// Fail fast; stop outstanding work and undo what was opened
+			synchronized (aborted) {
+				aborted.value = true;
+			}
+			for (Future<Result> future : futures) {
+				future.cancel(true);
+			}
+			synchronized (results) {
+				for (Result result : results) {
+					result.discard(pool);
+				}
+			}
+			throw e;
+		} finally {
+			executor.shutdownNow();
+		}
+
+		// Hand pooled connections back now that every connection has been made
+		if (pool != null) {
+			for (Result result : results) {
+				result.closeQueues();
+				pool.release(result.connector);
+			}
+		}
+
+		return results;
+	}
+
+	/**
+	 * Open one connection and its queues, timing each step. A pooled connection is borrowed, waiting until the warm-up
+	 * deadline if the pool has none free for the key.
+	 *
+	 * @param target
+	 *                Queue manager to connect to
+	 * @param index
+	 *                Number of this connection for the target, from 1
+	 * @param pool
+	 *                (Optional) Pool to borrow the connection from
+	 * @param endTime
+	 *                When the warm-up must finish, as a System.currentTimeMillis() time
+	 * @return
+	 * @throws MQException
+	 */
+	private Result connect(Target target, int index, MQConnectionPool pool, long endTime) throws MQException {
+		long start = System.nanoTime();
+		Connector connector = pool == null ? target.factory.create()
+				: pool.borrow(target.key, target.factory, Math.max(0, endTime - System.currentTimeMillis()));
+		long connected = System.nanoTime();
+
+		Result result = new Result(target.key, index, connector, TimeUnit.NANOSECONDS.toMillis(connected - start));
+		try {
+			for (String queueName : target.queueNames) {
+				result.queues.add(new OutputQueue(connector, queueName));
+			}
+		} catch (MQException e) {
+			result.discard(pool);
+			throw e;
+		}
+		result.openTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connected);
+		return result;
+	}
+
+	/**
+	 * A queue manager to warm up
+	 *
+	 */
+	private static final class Target {
+		private final String key;
+
+		private final ConnectorFactory factory;
+
+		private final int connections;
+
+		private final String[] queueNames;
+
+		Target(String key, ConnectorFactory factory, int connections, String[] queueNames) {
+			this.key = key;
+			this.factory = factory;
+			this.connections = connections;
+			this.queueNames = queueNames == null ? new String[0] : queueNames;
+		}
+	}
+
+	private static final class Aborted {
+		private boolean value = false;
+	}
+
+	/**
+	 * The outcome of one connection
+	 *
+	 */
+	public static final class Result {
+		private final String key;
+
+		private final int index;
+
+		private final Connector connector;
+
+		private final long connectTime;
+
+		private long openTime = 0;
+
+		private final List<OutputQueue> queues = new ArrayList<OutputQueue>();
+
+		Result(String key, int index, Connector connector, long connectTime) {
+			this.key = key;
+			this.index = index;
+			this.connector = connector;
+			this.connectTime = connectTime;
+		}
+
+		/**
+		 * Return the target name (or pool key)
+		 *
+		 * @return
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Return the connection
+		 *
+		 * @return
+		 */
+		public Connector getConnector() {
+			return connector;
+		}
+
+		/**
+		 * Return the queues opened on the connection. Empty when warming up a pool.
+		 *
+		 * @return
+		 */
+		public List<OutputQueue> getQueues() {
+			return queues;
+		}
+
+		/**
+		 * Return the time taken to connect in milliseconds
+		 *
+		 * @return
+		 */
+		public long getConnectTime() {
+			return connectTime;
+		}
+
+		/**
+		 * Return the time taken to open all queues in milliseconds
+		 *
+		 * @return
+		 */
+		public long getOpenTime() {
+			return openTime;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%-40s #%-3d connect %,7d ms, open %,7d ms (%d queues)", key, index, connectTime, openTime, queues.size());
+		}
+
+		private void closeQueues() {
+			for (OutputQueue queue : this.queues) {
+				queue.close();
+			}
+			this.queues.clear();
+		}
+
+		private void discard(MQConnectionPool pool) {
+			this.closeQueues();
+			if (pool != null) {
+				pool.release(this.connector);
+			} else {
+				try {
+					this.connector.disconnect();
+				} catch (MQException e) {
+					// Ignore any errors
+				}
+			}
+		}
+	}
+}
@@ -23,11 +23,25 @@ SOFTWARE.
  */
 package com.mqtoolbox.mqconnector;
 
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQQueueManager;
+import com.ibm.mq.constants.MQConstants;
 
 public abstract class Connector {
 
+	// Incremented each time the connection is re-established, so that handles opened on an older connection can be
+	// detected and re-opened
+	private volatile long connectionGeneration = 0;
+
+	private CircuitBreaker circuitBreaker = new CircuitBreaker(3, 10000);
+
+	private volatile ConnectionState state = ConnectionState.UP;
+
+	private final List<ConnectorStateListener> stateListeners = new CopyOnWriteArrayList<ConnectorStateListener>();
+
 	public abstract MQQueueManager getQueueManager();
 
 	public abstract void disconnect() throws MQException;
@@ -36,4 +50,141 @@ public abstract class Connector {
 
 	public abstract void reconnect() throws MQException;
 
+	/**
+	 * Is the connection to the queue manager still available? This is a local check and does not make a call to the
+	 * queue manager.
+	 * 
+	 * @return
+	 */
+	public boolean isConnected() {
+		MQQueueManager qmgr = this.getQueueManager();
+		return qmgr != null && qmgr.isConnected();
+	}
+
+	/**
+	 * Re-establish a broken connection. Many threads sharing this connection may detect the same failure; only the first
+	 * reconnects and the others return once the connection is back. After repeated failures the circuit breaker opens
+	 * and callers fail immediately with MQRC_RECONNECT_FAILED until the open period has passed.
+	 * 
+	 * @param observedGeneration
+	 *                           The connection generation in use when the failure was seen. See
+	 *                           {@link #getConnectionGeneration()}
+	 * @throws MQException
+	 */
+	public final void recover(long observedGeneration) throws MQException {
+		// Fail fast without queuing behind an attempt in progress
+		if (this.circuitBreaker.isOpen()) {
+			throw new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_RECONNECT_FAILED, this);
+		}
+
+		synchronized (this) {
+			// Another thread has already reconnected
+			if (this.connectionGeneration != observedGeneration && this.isConnected()) {
+				return;
+			}
+			if (!this.circuitBreaker.allowRequest()) {
+				throw new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_RECONNECT_FAILED, this);
+			}
+
+			try {
+				this.setState(ConnectionState.RECONNECTING);
+				if (this.getQueueManager() != null) {
+					try {
+						this.disconnect();
+					} catch (MQException e) {
+						// Ignore; the connection is already broken
+					}
+				}
+				this.reconnect();
+				this.connectionGeneration++;
+				this.circuitBreaker.recordSuccess();
+				this.setState(ConnectionState.UP);
+			} catch (MQException e) {
+				this.circuitBreaker.recordFailure();
+				this.setState(ConnectionState.DOWN);
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Return the connection generation; incremented each time {@link #recover(long)} re-establishes the connection
+	 * 
+	 * @return
+	 */
+	public final long getConnectionGeneration() {
+		return connectionGeneration;
+	}
+
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * Replace the default circuit breaker (3 failures, open for 10 seconds)
+	 * 
+	 * @param circuitBreaker
+	 */
+	public void setCircuitBreaker(CircuitBreaker circuitBreaker) {
+		this.circuitBreaker = circuitBreaker;
+	}
+
+	/**
+	 * Return the connection state
+	 * 
+	 * @return
+	 */
+	public final ConnectionState getState() {
+		return state;
+	}
+
+	/**
+	 * Set the connection state, notifying listeners of a change
+	 * 
+	 * @param newState
+	 */
+	protected final void setState(ConnectionState newState) {
+		ConnectionState oldState;
+		synchronized (this.stateListeners) {
+			oldState = this.state;
+			this.state = newState;
+		}
+		if (oldState != newState) {
+			for (ConnectorStateListener listener : this.stateListeners) {
+				listener.stateChanged(this, oldState, newState);
+			}
+		}
+	}
+
+	public final void addStateListener(ConnectorStateListener listener) {
+		this.stateListeners.add(listener);
+	}
+
+	public final void removeStateListener(ConnectorStateListener listener) {
+		this.stateListeners.remove(listener);
+	}
+
+	/**
+	 * Does the reason code indicate the connection to the queue manager has been lost or is going away?
+	 * 
+	 * @param reasonCode
+	 * @return
+	 */
+	public static boolean isConnectionError(int reasonCode) {
+		switch (reasonCode) {
+		case MQConstants.MQRC_CONNECTION_BROKEN:
+		case MQConstants.MQRC_CONNECTION_QUIESCING:
+		case MQConstants.MQRC_CONNECTION_STOPPED:
+		case MQConstants.MQRC_Q_MGR_NOT_AVAILABLE:
+		case MQConstants.MQRC_Q_MGR_QUIESCING:
+		case MQConstants.MQRC_Q_MGR_STOPPING:
+		case MQConstants.MQRC_HCONN_ERROR:
+		case MQConstants.MQRC_HOBJ_ERROR:
+		case MQConstants.MQRC_RECONNECT_FAILED:
+			return true;
+		default:
+			return false;
+		}
+	}
+
 }
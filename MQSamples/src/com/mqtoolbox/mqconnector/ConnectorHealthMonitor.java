@@ -0,0 +1,215 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.ibm.mq.MQException;
+
+/**
+ * Check registered connections in the background and re-establish broken ones before application threads use them.
+ * Each check is either a local isConnected() test or, by default, a small inquire on the queue manager which also
+ * detects connections the client has not yet noticed are broken. Broken connections are recovered using
+ * {@link Connector#recover(long)}, so the connector's state listeners are told of the change and any queues opened
+ * on the connector re-open their handles on next use.
+ *
+ * Note: the queue manager object serializes calls on a connection, so an inquire check waits for any get-with-wait in
+ * progress on the same connector. Register such connectors with inquire set to false.
+ *
+ */
+public class ConnectorHealthMonitor {
+
+	private final Map<Connector, Check> checks = new ConcurrentHashMap<Connector, Check>();
+
+	private ScheduledExecutorService scheduler = null;
+
+	private ExecutorService workers = null;
+
+	private int workerThreads = 4;
+
+	/**
+	 * Register a connection to be checked using an inquire
+	 *
+	 * @param connector
+	 */
+	public void register(Connector connector) {
+		this.register(connector, true);
+	}
+
+	/**
+	 * Register a connection to be checked
+	 *
+	 * @param connector
+	 * @param inquire
+	 *                  Check the connection with an inquire on the queue manager (true) or only check the local
+	 *                  connection state (false)
+	 */
+	public void register(Connector connector, boolean inquire) {
+		this.checks.put(connector, new Check(connector, inquire));
+	}
+
+	/**
+	 * Stop checking a connection
+	 *
+	 * @param connector
+	 */
+	public void unregister(Connector connector) {
+		this.checks.remove(connector);
+	}
+
+	/**
+	 * Set the number of threads used to run checks. Defaults to 4. Must be set before start().
+	 *
+	 * @param workerThreads
+	 */
+	public void setWorkerThreads(int workerThreads) {
+		this.workerThreads = workerThreads;
+	}
+
+	/**
+	 * Start checking the registered connections
+	 *
+	 * @param interval
+	 *                 Time (milliseconds) between checks of each connection
+	 */
+	public synchronized void start(long interval) {
+		if (this.scheduler != null) {
+			return;
+		}
+		final AtomicInteger threadCount = new AtomicInteger();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ConnectorHealthMonitor");
+			t.setDaemon(true);
+			return t;
+		});
+		this.workers = Executors.newFixedThreadPool(this.workerThreads, r -> {
+			Thread t = new Thread(r, "ConnectorHealthMonitor-" + threadCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		});
+		this.scheduler.scheduleWithFixedDelay(this::checkAll, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop checking. Connections are not disconnected.
+	 */
+	public synchronized void stop() {
+		if (this.scheduler != null) {
+			this.scheduler.shutdownNow();
+			this.workers.shutdownNow();
+			this.scheduler = null;
+			this.workers = null;
+		}
+	}
+
+	/**
+	 * Hand each connection that is not already being checked to a worker
+	 */
+	private void checkAll() {
+		ExecutorService executor = this.workers;
+		if (executor == null) {
+			return;
+		}
+		for (final Check check : this.checks.values()) {
+			if (check.inProgress.compareAndSet(false, true)) {
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							check.run();
+						} finally {
+							check.inProgress.set(false);
+						}
+					}
+				});
+			}
+		}
+	}
+
+	/**
+	 * Check one connection now, recovering it if it is broken
+	 *
+	 * @param connector
+	 * @return True if the connection is usable after the check
+	 */
+	public boolean checkNow(Connector connector) {
+		Check check = this.checks.get(connector);
+		if (check == null) {
+			check = new Check(connector, true);
+		}
+		return check.run();
+	}
+
+	/**
+	 * Check state for one connection
+	 *
+	 */
+	private static final class Check {
+		private final Connector connector;
+
+		private final boolean inquire;
+
+		private final AtomicBoolean inProgress = new AtomicBoolean(false);
+
+		Check(Connector connector, boolean inquire) {
+			this.connector = connector;
+			this.inquire = inquire;
+		}
+
+		/**
+		 * Test the connection and recover it if needed
+		 *
+		 * @return True if the connection is usable
+		 */
+		private boolean run() {
+			long generation = this.connector.getConnectionGeneration();
+			boolean healthy = this.connector.isConnected();
+
+			if (healthy && this.inquire) {
+				try {
+					this.connector.getQueueManager().getCommandLevel();
+				} catch (MQException e) {
+					healthy = !Connector.isConnectionError(e.reasonCode);
+				}
+			}
+			if (healthy) {
+				return true;
+			}
+
+			try {
+				this.connector.recover(generation);
+				return true;
+			} catch (MQException e) {
+				// The connector is now DOWN; try again on the next check
+				return false;
+			}
+		}
+	}
+}
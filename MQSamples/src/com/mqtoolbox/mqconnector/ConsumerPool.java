@@ -0,0 +1,534 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQPutMessageOptions;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.constants.MQConstants;
+import com.ibm.mq.headers.MQDLH;
+
+/**
+ * Pool of consumers for one queue. Each worker has its own thread, connection and queue handle, gets a message under
+ * syncpoint, passes it to the listener and commits; if the listener throws, the get is backed out and the message is
+ * got again later. A message backed out more than the backout threshold is moved, in the same unit of work, to the
+ * queue's backout requeue queue (BOQNAME) or, if that is not set, to the dead-letter queue with an MQDLH, so that one
+ * bad message cannot hold a worker forever. If neither is defined the message is passed to the
+ * {@link #setPoisonMessageListener(MQMessageListener) poison message listener} and backed out; it is never removed
+ * without being put somewhere.
+ * 
+ * The number of workers is adjusted between a minimum and a maximum by the share of time the workers spend in the
+ * listener: a worker is added when they are busy more than the high water mark, and one is retired when they are busy
+ * less than the low water mark.
+ * 
+ * <pre>
+ * ConsumerPool pool = new ConsumerPool(() -&gt; new BindConnector("QMGR1"), "ZTEST.QMGR1.QL", listener, 2, 16);
+ * pool.start();
+ * ...
+ * pool.shutdown(30000);
+ * </pre>
+ *
+ */
+public class ConsumerPool {
+
+	private final ConnectorFactory connectorFactory;
+
+	private final String queueName;
+
+	private final MQMessageListener listener;
+
+	private final int minWorkers;
+
+	private final int maxWorkers;
+
+	private final List<Worker> workers = new CopyOnWriteArrayList<Worker>();
+
+	private final AtomicInteger workerNumber = new AtomicInteger();
+
+	private int waitInterval = 1000;
+
+	private int backoutThreshold = 5;
+
+	private long scaleInterval = 5000;
+
+	private double highWaterMark = 0.8;
+
+	private double lowWaterMark = 0.3;
+
+	private long lastBusyNanos = 0;
+
+	private long lastScaleTime = 0;
+
+	private ScheduledExecutorService scaler = null;
+
+	private volatile boolean running = false;
+
+	private final AtomicLong processedCount = new AtomicLong();
+
+	private final AtomicLong failedCount = new AtomicLong();
+
+	private final AtomicLong requeuedCount = new AtomicLong();
+
+	private volatile MQMessageListener poisonMessageListener = null;
+
+	private final AtomicLong busyNanos = new AtomicLong();
+
+	private volatile Throwable lastError = null;
+
+	/**
+	 * Create a new pool
+	 * 
+	 * @param connectorFactory Creates a connector for each worker
+	 * @param queueName        Queue to consume from
+	 * @param listener         Processes each message; called on several threads at once
+	 * @param minWorkers       Number of workers started, and the fewest kept
+	 * @param maxWorkers       Most workers run at once
+	 */
+	public ConsumerPool(ConnectorFactory connectorFactory, String queueName, MQMessageListener listener, int minWorkers, int maxWorkers) {
+		if (minWorkers < 1 || maxWorkers < minWorkers) {
+			throw new IllegalArgumentException("Require 1 <= minWorkers <= maxWorkers");
+		}
+		this.connectorFactory = connectorFactory;
+		this.queueName = queueName;
+		this.listener = listener;
+		this.minWorkers = minWorkers;
+		this.maxWorkers = maxWorkers;
+	}
+
+	/**
+	 * Start the minimum number of workers and the scaler
+	 * 
+	 * @throws MQException if a worker cannot connect or open the queue
+	 */
+	public synchronized void start() throws MQException, Exception {
+		if (this.running) {
+			return;
+		}
+		this.running = true;
+		try {
+			for (int i = 0; i < this.minWorkers; i++) {
+				this.addWorker();
+			}
+		} catch (Exception e) {
+			this.shutdown(0);
+			throw e;
+		}
+		this.lastScaleTime = System.nanoTime();
+		this.lastBusyNanos = this.busyNanos.get();
+		this.scaler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "ConsumerPool-scaler-" + this.queueName);
+			t.setDaemon(true);
+			return t;
+		});
+		this.scaler.scheduleWithFixedDelay(this::scale, this.scaleInterval, this.scaleInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the pool. Each worker finishes the message it is processing, closes its queue and disconnects; messages not
+	 * yet got stay on the queue.
+	 * 
+	 * @param timeout Maximum wait (milliseconds) for the workers to finish
+	 * @return true if every worker finished within the timeout
+	 * @throws InterruptedException
+	 */
+	public boolean shutdown(long timeout) throws InterruptedException {
+		synchronized (this) {
+			this.running = false;
+			if (this.scaler != null) {
+				this.scaler.shutdownNow();
+				this.scaler = null;
+			}
+		}
+		long deadline = System.currentTimeMillis() + timeout;
+		for (Worker worker : this.workers) {
+			worker.retire = true;
+		}
+		boolean stopped = true;
+		for (Worker worker : this.workers) {
+			worker.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+			stopped &= !worker.thread.isAlive();
+		}
+		return stopped;
+	}
+
+	/**
+	 * Add or retire a worker according to how busy the workers were since the last check
+	 */
+	private synchronized void scale() {
+		if (!this.running) {
+			return;
+		}
+		long now = System.nanoTime();
+		long busy = this.busyNanos.get();
+		int active = this.getWorkerCount();
+		double utilisation = active == 0 ? 1 : (double) (busy - this.lastBusyNanos) / ((now - this.lastScaleTime) * (double) active);
+		this.lastScaleTime = now;
+		this.lastBusyNanos = busy;
+
+		try {
+			if (utilisation > this.highWaterMark && active < this.maxWorkers) {
+				this.addWorker();
+			} else if (utilisation < this.lowWaterMark && active > this.minWorkers) {
+				for (Worker worker : this.workers) {
+					if (!worker.retire) {
+						worker.retire = true;
+						break;
+					}
+				}
+			} else if (active < this.minWorkers) {
+				// Replace workers that stopped after an unrecoverable error
+				this.addWorker();
+			}
+		} catch (Exception e) {
+			this.lastError = e;
+		}
+	}
+
+	/**
+	 * Connect and start a new worker
+	 * 
+	 * @throws MQException
+	 */
+	private void addWorker() throws MQException, Exception {
+		Connector connector = this.connectorFactory.create();
+		InputQueueGet input;
+		try {
+			input = new InputQueueGet(connector, this.queueName);
+		} catch (Exception e) {
+			connector.disconnect();
+			throw e;
+		}
+		Worker worker = new Worker(connector, input);
+		this.workers.add(worker);
+		worker.thread.start();
+	}
+
+	/**
+	 * Set how long (milliseconds) each get waits for a message. This is also the longest a retired worker takes to stop.
+	 * 
+	 * @param waitInterval
+	 */
+	public void setWaitInterval(int waitInterval) {
+		this.waitInterval = waitInterval;
+	}
+
+	/**
+	 * Set the number of times a message may be backed out before it is moved to the backout requeue or dead-letter queue
+	 * 
+	 * @param backoutThreshold
+	 */
+	public void setBackoutThreshold(int backoutThreshold) {
+		this.backoutThreshold = backoutThreshold;
+	}
+
+	/**
+	 * Set when workers are added and retired. Set before {@link #start()}.
+	 * 
+	 * @param scaleInterval Time (milliseconds) between checks
+	 * @param lowWaterMark  Retire a worker when the share of time spent in the listener is below this (0 to 1)
+	 * @param highWaterMark Add a worker when the share of time spent in the listener is above this (0 to 1)
+	 */
+	public void setScaling(long scaleInterval, double lowWaterMark, double highWaterMark) {
+		this.scaleInterval = scaleInterval;
+		this.lowWaterMark = lowWaterMark;
+		this.highWaterMark = highWaterMark;
+	}
+
+	/**
+	 * Return the number of workers that are running and not retiring
+	 * 
+	 * @return
+	 */
+	public int getWorkerCount() {
+		int count = 0;
+		for (Worker worker : this.workers) {
+			if (!worker.retire) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	public long getProcessedCount() {
+		return this.processedCount.get();
+	}
+
+	public long getFailedCount() {
+		return this.failedCount.get();
+	}
+
+	/**
+	 * Return the number of messages moved to the backout requeue or dead-letter queue
+	 * 
+	 * @return
+	 */
+	public long getRequeuedCount() {
+		return this.requeuedCount.get();
+	}
+
+	/**
+	 * Pass messages over the backout threshold to this listener when the queue has no backout requeue queue and the
+	 * queue manager has no dead-letter queue, or the put to them fails. The message is backed out afterwards, so the
+	 * listener is called again each time the message is got until it is removed from the queue by other means.
+	 * 
+	 * @param poisonMessageListener
+	 */
+	public void setPoisonMessageListener(MQMessageListener poisonMessageListener) {
+		this.poisonMessageListener = poisonMessageListener;
+	}
+
+	/**
+	 * Return the last error from a worker or the listener, or null
+	 * 
+	 * @return
+	 */
+	public Throwable getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * One consumer, with its own connection and queue handle
+	 */
+	private final class Worker implements Runnable {
+		private final Connector connector;
+		private final Thread thread;
+		private InputQueueGet input;
+		private volatile boolean retire = false;
+
+		// Where messages over the backout threshold are put, found on first use
+		private boolean poisonQueueResolved = false;
+		private String poisonQueueName = null;
+		private boolean poisonQueueIsDeadLetter = false;
+
+		Worker(Connector connector, InputQueueGet input) {
+			this.connector = connector;
+			this.input = input;
+			this.thread = new Thread(this, "ConsumerPool-" + queueName + "-" + workerNumber.incrementAndGet());
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (!this.retire) {
+					try {
+						this.processNext();
+					} catch (MQException e) {
+						lastError = e;
+						if (!Connector.isConnectionError(e.reasonCode)) {
+							throw e;
+						}
+						this.reconnect();
+					}
+				}
+			} catch (Throwable t) {
+				// Unrecoverable; the scaler starts a replacement if the pool falls below its minimum
+				lastError = t;
+			} finally {
+				workers.remove(this);
+				// Disconnecting commits an open unit of work, so return any message still in one, for example after the
+				// listener threw an Error
+				try {
+					this.input.backout();
+				} catch (MQException e) {
+					// A broken connection backs out the unit of work anyway
+				}
+				this.input.close();
+				try {
+					this.connector.disconnect();
+				} catch (MQException e) {
+					// Ignore any errors
+				}
+			}
+		}
+
+		/**
+		 * Get one message under syncpoint, process it and commit, or back out if the listener fails
+		 * 
+		 * @throws MQException
+		 */
+		private void processNext() throws MQException, Exception {
+			List<MQMessage> batch = this.input.getBatch(1, Long.MAX_VALUE, waitInterval);
+			if (batch.isEmpty()) {
+				return;
+			}
+			MQMessage message = batch.get(0);
+			if (message.backoutCount >= backoutThreshold) {
+				this.handlePoisonMessage(message);
+				return;
+			}
+			long start = System.nanoTime();
+			try {
+				listener.onMessage(queueName, message);
+			} catch (Exception e) {
+				lastError = e;
+				failedCount.incrementAndGet();
+				this.input.backout();
+				return;
+			} finally {
+				busyNanos.addAndGet(System.nanoTime() - start);
+			}
+			this.input.commit();
+			processedCount.incrementAndGet();
+		}
+
+		/**
+		 * Move a message over the backout threshold to the backout requeue or dead-letter queue and commit. If there is
+		 * neither, or the put fails, pass it to the poison message listener and back out.
+		 * 
+		 * @param message
+		 * @throws MQException
+		 */
+		private void handlePoisonMessage(MQMessage message) throws MQException, Exception {
+			this.resolvePoisonQueue();
+			if (this.poisonQueueName != null) {
+				try {
+					MQMessage requeued = this.poisonQueueIsDeadLetter ? this.addDeadLetterHeader(message) : message;
+					MQPutMessageOptions pmo = new MQPutMessageOptions();
+					pmo.options = MQConstants.MQPMO_SYNCPOINT | MQConstants.MQPMO_FAIL_IF_QUIESCING;
+					this.connector.getQueueManager().put(this.poisonQueueName, "", requeued, pmo);
+					this.input.commit();
+					requeuedCount.incrementAndGet();
+					return;
+				} catch (MQException e) {
+					if (Connector.isConnectionError(e.reasonCode)) {
+						throw e;
+					}
+					lastError = e;
+				}
+			}
+
+			// Nowhere to put it; leave the message on the queue
+			MQMessageListener handler = poisonMessageListener;
+			if (handler != null) {
+				try {
+					handler.onMessage(queueName, message);
+				} catch (Exception e) {
+					lastError = e;
+				}
+			}
+			failedCount.incrementAndGet();
+			this.input.backout();
+
+			// The message is got again straight away, so slow down rather than spin on it
+			Thread.sleep(waitInterval);
+		}
+
+		/**
+		 * Find the queue's backout requeue queue, or failing that the queue manager's dead-letter queue
+		 * 
+		 * @throws MQException
+		 */
+		private void resolvePoisonQueue() throws MQException {
+			if (this.poisonQueueResolved) {
+				return;
+			}
+			try {
+				MQQueue queue = this.connector.getQueueManager().accessQueue(queueName, MQConstants.MQOO_INQUIRE | MQConstants.MQOO_FAIL_IF_QUIESCING);
+				String backoutQueueName;
+				try {
+					backoutQueueName = queue.getAttributeString(MQConstants.MQCA_BACKOUT_REQ_Q_NAME, MQConstants.MQ_Q_NAME_LENGTH).trim();
+				} finally {
+					queue.close();
+				}
+				if (!backoutQueueName.isEmpty()) {
+					this.poisonQueueName = backoutQueueName;
+				} else {
+					String deadLetterQueueName = this.connector.getQueueManager().getAttributeString(MQConstants.MQCA_DEAD_LETTER_Q_NAME, MQConstants.MQ_Q_NAME_LENGTH).trim();
+					if (!deadLetterQueueName.isEmpty()) {
+						this.poisonQueueName = deadLetterQueueName;
+						this.poisonQueueIsDeadLetter = true;
+					}
+				}
+			} catch (MQException e) {
+				if (Connector.isConnectionError(e.reasonCode)) {
+					throw e;
+				}
+				// For example, not authorised to inquire; fall back to the poison message listener
+				lastError = e;
+			}
+			this.poisonQueueResolved = true;
+		}
+
+		/**
+		 * Return a copy of the message prefixed with a dead-letter header
+		 * 
+		 * @param message
+		 * @return
+		 * @throws IOException
+		 * @throws MQException
+		 */
+		private MQMessage addDeadLetterHeader(MQMessage message) throws IOException, MQException {
+			MQDLH dlh = new MQDLH();
+			dlh.setReason(MQConstants.MQRC_BACKOUT_THRESHOLD_REACHED);
+			dlh.setDestQName(queueName);
+			dlh.setDestQMgrName(this.connector.getQueueManager().getName());
+			dlh.setFormat(message.format);
+			dlh.setEncoding(message.encoding);
+			dlh.setCodedCharSetId(message.characterSet);
+			dlh.setPutApplType(MQConstants.MQAT_JAVA);
+			dlh.setPutApplName("ConsumerPool");
+
+			byte[] body = new byte[message.getMessageLength()];
+			message.seek(0);
+			message.readFully(body);
+
+			MQMessage deadLetter = new MQMessage();
+			deadLetter.messageId = message.messageId;
+			deadLetter.correlationId = message.correlationId;
+			deadLetter.messageType = message.messageType;
+			deadLetter.persistence = message.persistence;
+			deadLetter.priority = message.priority;
+			deadLetter.expiry = message.expiry;
+			deadLetter.report = message.report;
+			deadLetter.feedback = message.feedback;
+			deadLetter.replyToQueueName = message.replyToQueueName;
+			deadLetter.replyToQueueManagerName = message.replyToQueueManagerName;
+			deadLetter.format = MQConstants.MQFMT_DEAD_LETTER_HEADER;
+			dlh.write(deadLetter, deadLetter.encoding, deadLetter.characterSet);
+			deadLetter.write(body);
+			return deadLetter;
+		}
+
+		/**
+		 * Re-establish the connection after a connection error and re-open the queue
+		 * 
+		 * @throws MQException
+		 */
+		private void reconnect() throws MQException, Exception {
+			this.connector.recover(this.connector.getConnectionGeneration());
+			this.input.close();
+			this.input = new InputQueueGet(this.connector, queueName);
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compress payloads with the JDK's Deflate implementation. Text payloads such as XML and JSON typically compress to a
+ * fifth or less of their size.
+ *
+ */
+public class DeflatePayloadCodec implements PayloadCodec {
+
+	public static final String FORMAT = "DEFLATE ";
+
+	private final int level;
+
+	/**
+	 * Create a codec using the default compression level
+	 */
+	public DeflatePayloadCodec() {
+		this(Deflater.DEFAULT_COMPRESSION);
+	}
+
+	/**
+	 * Create a codec using the passed compression level
+	 * 
+	 * @param level 1 (fastest) to 9 (smallest), or Deflater.DEFAULT_COMPRESSION
+	 */
+	public DeflatePayloadCodec(int level) {
+		this.level = level;
+	}
+
+	@Override
+	public String getFormat() {
+		return FORMAT;
+	}
+
+	@Override
+	public byte[] encode(byte[] payload) throws IOException {
+		Deflater deflater = new Deflater(this.level);
+		try {
+			deflater.setInput(payload);
+			deflater.finish();
+			ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, payload.length / 4));
+			byte[] buffer = new byte[8192];
+			while (!deflater.finished()) {
+				int length = deflater.deflate(buffer);
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	@Override
+	public byte[] decode(byte[] data, int offset, int length) throws IOException {
+		Inflater inflater = new Inflater();
+		try {
+			inflater.setInput(data, offset, length);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(length * 4);
+			byte[] buffer = new byte[8192];
+			while (!inflater.finished()) {
+				int read = inflater.inflate(buffer);
+				if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					throw new IOException("Truncated or invalid deflate payload");
+				}
+				out.write(buffer, 0, read);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IOException("Invalid deflate payload", e);
+		} finally {
+			inflater.end();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tracks how often destinations are written to, to decide whether a queue is worth keeping open. A destination is hot
+ * when it has been written to at least a threshold number of times within a time window. Destinations that are written
+ * to once or rarely are better served by a single MQPUT1 call than by open, put and close.
+ *
+ */
+public class DestinationActivityTracker {
+
+	private final int threshold;
+
+	private final long windowMillis;
+
+	private final LinkedHashMap<String, Activity> activity;
+
+	/**
+	 * Create a new tracker
+	 * 
+	 * @param threshold    Number of writes within the window at which a destination becomes hot
+	 * @param windowMillis Length of the window in milliseconds
+	 * @param maxTracked   Maximum number of destinations tracked; the least recently written are forgotten
+	 */
+	public DestinationActivityTracker(int threshold, long windowMillis, final int maxTracked) {
+		this.threshold = threshold;
+		this.windowMillis = windowMillis;
+		this.activity = new LinkedHashMap<String, Activity>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Activity> eldest) {
+				return size() > maxTracked;
+			}
+		};
+	}
+
+	/**
+	 * Record a write to the destination and return true if it is now hot
+	 * 
+	 * @param destination Queue name, qualified with the queue manager name if needed
+	 * @return
+	 */
+	public synchronized boolean recordAndCheck(String destination) {
+		long now = System.currentTimeMillis();
+		Activity entry = this.activity.get(destination);
+		if (entry == null) {
+			entry = new Activity();
+			this.activity.put(destination, entry);
+		}
+		if (now - entry.windowStart > this.windowMillis) {
+			entry.windowStart = now;
+			entry.count = 0;
+		}
+		entry.count++;
+		return entry.count >= this.threshold;
+	}
+
+	public int getThreshold() {
+		return threshold;
+	}
+
+	public long getWindowMillis() {
+		return windowMillis;
+	}
+
+	private static final class Activity {
+		private long windowStart = 0;
+		private int count = 0;
+	}
+}
@@ -0,0 +1,308 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Runs tasks after a delay, for very large numbers of pending timeouts that are usually cancelled before they expire,
+ * such as reply deadlines. Timeouts are held in a ring of buckets, one per tick, so scheduling and cancelling cost the
+ * same however many are pending, and a single thread serves them all. A timeout fires about one tick after its deadline.
+ * 
+ * Tasks run on the timer thread and should be short; anything that may block should be handed to an executor.
+ *
+ */
+public class HashedWheelTimer {
+
+	/**
+	 * A scheduled task
+	 */
+	public interface Timeout {
+
+		/**
+		 * Cancel the task if it has not yet run
+		 * 
+		 * @return true if the task was cancelled by this call
+		 */
+		boolean cancel();
+
+		/**
+		 * @return true if the task has run or is running
+		 */
+		boolean isExpired();
+	}
+
+	private static final int ST_INIT = 0;
+	private static final int ST_CANCELLED = 1;
+	private static final int ST_EXPIRED = 2;
+
+	// Most new timeouts moved into the wheel each tick, so a burst of schedules cannot stall expiry
+	private static final int MAX_TRANSFER_PER_TICK = 100000;
+
+	private final long tickNanos;
+
+	private final Bucket[] wheel;
+
+	private final int mask;
+
+	private final Queue<Entry> additions = new ConcurrentLinkedQueue<Entry>();
+
+	private final Queue<Entry> cancellations = new ConcurrentLinkedQueue<Entry>();
+
+	private final AtomicInteger pendingCount = new AtomicInteger();
+
+	private final long startTime;
+
+	private final Thread worker;
+
+	private volatile boolean running = true;
+
+	private volatile Throwable lastError = null;
+
+	/**
+	 * Create the timer and start its thread
+	 * 
+	 * @param name         Name of the timer thread
+	 * @param tickDuration Length of one tick
+	 * @param unit         Unit of tickDuration
+	 * @param wheelSize    Number of buckets, rounded up to a power of two
+	 */
+	public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+		if (tickDuration <= 0 || wheelSize <= 0 || wheelSize > (1 << 30)) {
+			throw new IllegalArgumentException("tickDuration and wheelSize must be positive");
+		}
+		this.tickNanos = unit.toNanos(tickDuration);
+		int size = wheelSize == 1 ? 1 : Integer.highestOneBit(wheelSize - 1) << 1;
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			this.wheel[i] = new Bucket();
+		}
+		this.mask = size - 1;
+
+		this.startTime = System.nanoTime();
+		this.worker = new Thread(this::run, name);
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Run the task once the delay has passed
+	 * 
+	 * @param task
+	 * @param delay
+	 * @param unit
+	 * @return A handle to cancel the task
+	 */
+	public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+		if (!this.running) {
+			throw new IllegalStateException("Timer is stopped");
+		}
+		long deadline = System.nanoTime() + unit.toNanos(Math.max(delay, 0)) - this.startTime;
+		Entry entry = new Entry(task, deadline);
+		this.pendingCount.incrementAndGet();
+		this.additions.add(entry);
+		return entry;
+	}
+
+	/**
+	 * Stop the timer thread. Pending tasks are discarded without running.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void stop() throws InterruptedException {
+		this.running = false;
+		this.worker.interrupt();
+		if (Thread.currentThread() != this.worker) {
+			this.worker.join();
+		}
+	}
+
+	/**
+	 * Return the number of tasks scheduled and not yet run or cancelled
+	 * 
+	 * @return
+	 */
+	public int getPendingCount() {
+		return this.pendingCount.get();
+	}
+
+	/**
+	 * Return the last exception thrown by a task, or null
+	 * 
+	 * @return
+	 */
+	public Throwable getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Timer thread. Each tick, applies cancellations, moves new timeouts into their buckets and runs the expired
+	 * timeouts in the current bucket.
+	 */
+	private void run() {
+		long tick = 0;
+		while (this.running) {
+			long sleepNanos = this.tickNanos * (tick + 1) - (System.nanoTime() - this.startTime);
+			if (sleepNanos > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleepNanos);
+				} catch (InterruptedException e) {
+					continue;
+				}
+			}
+			this.processCancellations();
+			this.transferAdditions(tick);
+			this.expire(this.wheel[(int) (tick & this.mask)], tick);
+			tick++;
+		}
+	}
+
+	private void processCancellations() {
+		Entry entry;
+		while ((entry = this.cancellations.poll()) != null) {
+			if (entry.bucket != null) {
+				entry.bucket.remove(entry);
+			}
+		}
+	}
+
+	private void transferAdditions(long tick) {
+		for (int i = 0; i < MAX_TRANSFER_PER_TICK; i++) {
+			Entry entry = this.additions.poll();
+			if (entry == null) {
+				break;
+			}
+			if (entry.state != ST_INIT) {
+				continue;
+			}
+			long due = entry.deadline / this.tickNanos;
+			entry.remainingRounds = Math.max(due - tick, 0) / this.wheel.length;
+			// A timeout already due goes in the current bucket
+			this.wheel[(int) (Math.max(due, tick) & this.mask)].add(entry);
+		}
+	}
+
+	private void expire(Bucket bucket, long tick) {
+		Entry entry = bucket.head;
+		while (entry != null) {
+			Entry next = entry.next;
+			if (entry.state == ST_CANCELLED) {
+				bucket.remove(entry);
+			} else if (entry.remainingRounds <= 0) {
+				bucket.remove(entry);
+				entry.expire();
+			} else {
+				entry.remainingRounds--;
+			}
+			entry = next;
+		}
+	}
+
+	/**
+	 * The timeouts that fall in one slot of the wheel. Only used by the timer thread.
+	 */
+	private static final class Bucket {
+		private Entry head;
+		private Entry tail;
+
+		void add(Entry entry) {
+			entry.bucket = this;
+			if (this.head == null) {
+				this.head = this.tail = entry;
+			} else {
+				this.tail.next = entry;
+				entry.prev = this.tail;
+				this.tail = entry;
+			}
+		}
+
+		void remove(Entry entry) {
+			if (entry.bucket != this) {
+				return;
+			}
+			if (entry.prev != null) {
+				entry.prev.next = entry.next;
+			} else {
+				this.head = entry.next;
+			}
+			if (entry.next != null) {
+				entry.next.prev = entry.prev;
+			} else {
+				this.tail = entry.prev;
+			}
+			entry.prev = entry.next = null;
+			entry.bucket = null;
+		}
+	}
+
+	private final class Entry implements Timeout {
+		private final Runnable task;
+		private final long deadline;
+		volatile int state = ST_INIT;
+
+		// Owned by the timer thread
+		private long remainingRounds;
+		private Bucket bucket;
+		private Entry prev;
+		private Entry next;
+
+		Entry(Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (!STATE.compareAndSet(this, ST_INIT, ST_CANCELLED)) {
+				return false;
+			}
+			HashedWheelTimer.this.pendingCount.decrementAndGet();
+			HashedWheelTimer.this.cancellations.add(this);
+			return true;
+		}
+
+		@Override
+		public boolean isExpired() {
+			return this.state == ST_EXPIRED;
+		}
+
+		void expire() {
+			if (!STATE.compareAndSet(this, ST_INIT, ST_EXPIRED)) {
+				return;
+			}
+			HashedWheelTimer.this.pendingCount.decrementAndGet();
+			try {
+				this.task.run();
+			} catch (Throwable t) {
+				HashedWheelTimer.this.lastError = t;
+			}
+		}
+	}
+
+	private static final AtomicIntegerFieldUpdater<Entry> STATE = AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+}
@@ -24,8 +24,11 @@ SOFTWARE.
 package com.mqtoolbox.mqconnector;
 
 import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
 
 import com.ibm.mq.MQMessage;
+import com.mqtoolbox.support.MessageTextDecoder;
 
 /**
  * Some useful methods
@@ -64,7 +67,7 @@ public class Helper {
 	}
 
 	/**
-	 * Read the message payload as a byte[] array
+	 * Read the message payload as a byte[] array. A message encoded by an OutputQueue payload codec is decoded first.
 	 * 
 	 * @param msg The message to process
 	 * @return
@@ -72,6 +75,7 @@ public class Helper {
 	public static final byte[] extractMessagePayloadAsByte(MQMessage msg) {
 		byte[] payload = null;
 		try {
+			PayloadCodecs.decode(msg);
 			payload = new byte[msg.getMessageLength()];
 			msg.readFully(payload);
 		} catch (IOException e) {
@@ -85,17 +89,110 @@ public class Helper {
 	 * 
 	 * @param msg The message to process
 	 * @return
+	 * @deprecated To get the text of a message, use {@link #extractMessagePayloadAsString(MQMessage)}
 	 */
+	@Deprecated
 	public static final byte[] extractMessagePayloadAsByteUTF8(MQMessage msg) {
 		byte[] payload = null;
 		try {
 			payload = new byte[msg.getMessageLength() * 2];
-			int i = 0;
-			while (msg.getDataLength() != 0)
-				payload[i++] = msg.readByte();
+			msg.readFully(payload, 0, msg.getDataLength());
 		} catch (IOException e) {
 			return null;
 		}
 		return payload;
 	}
+
+	/**
+	 * Read the message payload as text, decoded from the message's character set (MQMD CCSID). The payload is decoded in
+	 * chunks with a reusable decoder, so no array the size of the message is allocated. A message encoded by an
+	 * OutputQueue payload codec is decoded first.
+	 * 
+	 * @param msg The message to process
+	 * @return
+	 */
+	public static final String extractMessagePayloadAsString(MQMessage msg) {
+		try {
+			PayloadCodecs.decode(msg);
+			return MessageTextDecoder.forCurrentThread().decode(msg);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	// Scratch array for copying into direct buffers, which have no array to read into
+	private static final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[65536]);
+
+	/**
+	 * Read the message payload into the passed buffer, heap or direct, starting at the buffer's position, and return a
+	 * view of the payload. The buffer's position is moved past the payload; the view shares its content, with position
+	 * 0 at the first byte of the payload. No array is allocated for the payload. A message encoded by an OutputQueue
+	 * payload codec is decoded first.
+	 * 
+	 * @param msg    The message to process
+	 * @param buffer Buffer to read into
+	 * @return
+	 * @throws IOException
+	 * @throws BufferOverflowException if the payload does not fit in the buffer's remaining space
+	 */
+	public static final ByteBuffer extractMessagePayload(MQMessage msg, ByteBuffer buffer) throws IOException {
+		PayloadCodecs.decode(msg);
+		int length = msg.getDataLength();
+		if (buffer.remaining() < length) {
+			throw new BufferOverflowException();
+		}
+		int start = buffer.position();
+		readInto(msg, buffer, length);
+		ByteBuffer view = buffer.duplicate();
+		view.limit(start + length);
+		view.position(start);
+		return view.slice();
+	}
+
+	/**
+	 * Read the message payload into a buffer from the pool. The returned payload must be closed to give the buffer back.
+	 * A message encoded by an OutputQueue payload codec is decoded first.
+	 * 
+	 * @param msg  The message to process
+	 * @param pool Pool to take the buffer from
+	 * @return
+	 * @throws IOException
+	 */
+	public static final PooledPayload extractMessagePayloadPooled(MQMessage msg, ByteBufferPool pool) throws IOException {
+		PayloadCodecs.decode(msg);
+		int length = msg.getDataLength();
+		ByteBuffer buffer = pool.acquire(length);
+		try {
+			readInto(msg, buffer, length);
+		} catch (IOException e) {
+			pool.release(buffer);
+			throw e;
+		}
+		ByteBuffer view = buffer.duplicate();
+		view.flip();
+		return new PooledPayload(pool, buffer, view.slice());
+	}
+
+	/**
+	 * Copy bytes from the message into the buffer at its position
+	 * 
+	 * @param msg
+	 * @param buffer
+	 * @param length
+	 * @throws IOException
+	 */
+	private static void readInto(MQMessage msg, ByteBuffer buffer, int length) throws IOException {
+		if (buffer.hasArray()) {
+			msg.readFully(buffer.array(), buffer.arrayOffset() + buffer.position(), length);
+			buffer.position(buffer.position() + length);
+			return;
+		}
+		byte[] chunk = scratch.get();
+		while (length > 0) {
+			int count = Math.min(length, chunk.length);
+			msg.readFully(chunk, 0, count);
+			buffer.put(chunk, 0, count);
+			length -= count;
+		}
+	}
 }
@@ -23,6 +23,9 @@ SOFTWARE.
  */
 package com.mqtoolbox.mqconnector;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQGetMessageOptions;
 import com.ibm.mq.MQMessage;
@@ -30,11 +33,44 @@ import com.ibm.mq.constants.MQConstants;
 
 public class InputQueueGet extends InputQueue {
 
+	// Open with MQOO_READ_AHEAD?
+	private boolean readAhead = false;
+
+	// Convert option of the last get, repeated when draining, as read ahead requires the options not to change
+	private boolean lastGetConvert = true;
+
+	// Sizes the receive buffer from recent message sizes, when set
+	private AdaptiveBufferSizer bufferSizer = null;
+
 	public InputQueueGet(Connector connector, String queueName) throws MQException, Exception{
 		super(connector, queueName);
 		this.openForGet();
 	}
 
+	/**
+	 * Open the queue for get, optionally with read ahead. With read ahead, the queue manager sends non-persistent
+	 * messages to the client before the application asks for them, so most gets are served from a buffer in the client
+	 * without a network round trip. It only applies to client connections, and only to non-persistent messages got
+	 * outside syncpoint; other messages are got as normal. The gets on the queue must use the same options each time, or
+	 * they fail with MQRC_OPTIONS_CHANGED. The queue's DEFREADA attribute must not be DISABLED.
+	 * 
+	 * The size of the client buffer is set in the MessageBuffer stanza of mqclient.ini (MaximumSize, in KB). Messages
+	 * in the buffer have already been removed from the queue, so close the queue with {@link #closeAndDrain()} to
+	 * collect them rather than {@link #close()}, which discards them.
+	 * 
+	 * @param connector
+	 * @param queueName
+	 * @param readAhead
+	 *            Open the queue with MQOO_READ_AHEAD?
+	 * @throws MQException
+	 * @throws Exception
+	 */
+	public InputQueueGet(Connector connector, String queueName, boolean readAhead) throws MQException, Exception {
+		super(connector, queueName);
+		this.readAhead = readAhead;
+		this.openForGet();
+	}
+
 	public InputQueueGet(Connector connector, String queueName, String modelQueueName) throws MQException, Exception {
 		super(connector, queueName,modelQueueName);
 		this.openDynamicQueueForGet();
@@ -42,6 +78,9 @@ public class InputQueueGet extends InputQueue {
 
 	private final void openForGet() throws MQException, Exception {
 		int options = MQConstants.MQOO_INPUT_AS_Q_DEF | MQConstants.MQOO_FAIL_IF_QUIESCING;
+		if (this.readAhead) {
+			options |= MQConstants.MQOO_READ_AHEAD;
+		}
 		queue = this.connector.getQueueManager().accessQueue(this.queueName, options);
 		// this.queueOpenedForGet = true;
 	}
@@ -52,6 +91,54 @@ public class InputQueueGet extends InputQueue {
 		// this.queueOpenedForGet = true;
 	}
 
+	/**
+	 * Get a message, sizing the receive buffer with the adaptive sizer if one is set. A message too large for the buffer
+	 * stays on the queue; the buffer is grown to fit and the get retried once. If the retry is truncated too, for example
+	 * because another consumer took the message and the next one is larger still, the buffer is grown again and
+	 * MQRC_TRUNCATED_MSG_FAILED thrown.
+	 * 
+	 * @param msg
+	 * @param gmo
+	 * @throws MQException
+	 */
+	private void get(MQMessage msg, MQGetMessageOptions gmo) throws MQException {
+		if (this.bufferSizer == null) {
+			this.queue.get(msg, gmo);
+			return;
+		}
+		try {
+			this.queue.get(msg, gmo, this.bufferSizer.getBufferSize());
+		} catch (MQException e) {
+			if (e.reasonCode != MQConstants.MQRC_TRUNCATED_MSG_FAILED) {
+				throw e;
+			}
+			try {
+				this.queue.get(msg, gmo, this.bufferSizer.grow(msg.getTotalMessageLength()));
+			} catch (MQException e1) {
+				if (e1.reasonCode == MQConstants.MQRC_TRUNCATED_MSG_FAILED) {
+					this.bufferSizer.grow(msg.getTotalMessageLength());
+				}
+				throw e1;
+			}
+		}
+		this.bufferSizer.record(msg.getTotalMessageLength());
+	}
+
+	/**
+	 * Size the receive buffer for each get from the sizes of recent messages, instead of leaving it to the MQ client
+	 * library. This avoids both repeated gets of messages larger than the default buffer and large buffers kept for
+	 * small messages. Specify null to return to the default.
+	 * 
+	 * @param bufferSizer
+	 */
+	public void setAdaptiveBuffer(AdaptiveBufferSizer bufferSizer) {
+		this.bufferSizer = bufferSizer;
+	}
+
+	public AdaptiveBufferSizer getAdaptiveBuffer() {
+		return this.bufferSizer;
+	}
+
 	/**
 	 * Get the next message on the queue, using the MQ convert option. The queue will be automatically opened if it is
 	 * not already open and the first message got.
@@ -171,6 +258,7 @@ public class InputQueueGet extends InputQueue {
 		// Get the next message
 		try {
 			gmo.options = MQConstants.MQGMO_FAIL_IF_QUIESCING;
+			this.lastGetConvert = convertMessage;
 			if (convertMessage) {
 				gmo.options |= MQConstants.MQGMO_CONVERT;
 			}
@@ -179,18 +267,21 @@ public class InputQueueGet extends InputQueue {
 				gmo.waitInterval = waitInterval;
 			}
 
-			this.queue.get(this.message, gmo);
+			this.get(this.message, gmo);
 
 		} catch (MQException e) {
 			if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
 				this.noMessageFound = true;
 				return null;
+			} else if (e.reasonCode == MQConstants.MQRC_FORMAT_ERROR && e.completionCode == MQConstants.MQCC_WARNING
+					&& PayloadCodecs.isEncoded(this.message.format)) {
+				// The queue manager cannot convert an encoded message, so it was got unconverted; decode it below
 			} else if (e.reasonCode == MQConstants.MQRC_FORMAT_ERROR && bypassFormatError) {
 				// If we are bypassing any format error and a format error is encountered, browse the message
 				// unconverted
 				gmo.options = MQConstants.MQGMO_FAIL_IF_QUIESCING; // no need to wait
 				try {
-					this.queue.get(this.message, gmo);
+					this.get(this.message, gmo);
 				} catch (MQException e1) {
 					throw e1;
 				}
@@ -199,9 +290,210 @@ public class InputQueueGet extends InputQueue {
 			}
 		}
 
+		// Decode a message encoded by an OutputQueue payload codec
+		PayloadCodecs.decode(this.message);
+
 		return this.message;
 	}
 
+	/**
+	 * Get a batch of messages under syncpoint, using the MQ convert option. Messages are got until maxMessages have been
+	 * got, their total length reaches maxBytes, or maxWait has passed, whichever comes first. The messages stay in the
+	 * unit of work until the caller calls {@link #commit()} to remove them from the queue or {@link #backout()} to
+	 * return them, so a batch costs a single commit however many messages it holds. If a get fails the batch is backed
+	 * out and the exception thrown. A message too large for the receive buffer ends the batch early and is left on the
+	 * queue for the next batch; if it is the first message, MQRC_TRUNCATED_MSG_FAILED is thrown.
+	 * 
+	 * Note: the commit applies to the connection, so any other uncommitted work on the same connector is committed too.
+	 * 
+	 * @param maxMessages
+	 *            Maximum number of messages in the batch
+	 * @param maxBytes
+	 *            Stop once the total message length reaches this many bytes
+	 * @param maxWait
+	 *            How long to wait (milliseconds) in total for messages to fill the batch
+	 * @return The messages got, empty if none arrived
+	 * @throws MQException
+	 */
+	public final List<MQMessage> getBatch(int maxMessages, long maxBytes, int maxWait) throws MQException, Exception {
+		if (queue == null) {
+			this.openForGet();
+		}
+
+		// Initalize
+		List<MQMessage> batch = new ArrayList<MQMessage>(Math.min(maxMessages, 1000));
+		long totalBytes = 0;
+		long deadline = System.currentTimeMillis() + maxWait;
+		MQGetMessageOptions gmo = new MQGetMessageOptions();
+
+		try {
+			while (batch.size() < maxMessages && totalBytes < maxBytes) {
+				MQMessage msg = new MQMessage();
+				msg.messageId = MQConstants.MQMI_NONE;
+				msg.correlationId = MQConstants.MQCI_NONE;
+				gmo.options = MQConstants.MQGMO_SYNCPOINT | MQConstants.MQGMO_CONVERT | MQConstants.MQGMO_FAIL_IF_QUIESCING;
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining > 0) {
+					gmo.options |= MQConstants.MQGMO_WAIT;
+					gmo.waitInterval = (int) remaining;
+				}
+
+				try {
+					this.get(msg, gmo);
+				} catch (MQException e) {
+					if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
+						break;
+					}
+					// The message was not got and stays on the queue
+					if (e.reasonCode == MQConstants.MQRC_TRUNCATED_MSG_FAILED && !batch.isEmpty()) {
+						break;
+					}
+					// A conversion warning still removes the message, unconverted, in this unit of work, so keep it
+					if (e.completionCode != MQConstants.MQCC_WARNING || !isConversionWarning(e.reasonCode)) {
+						throw e;
+					}
+				}
+				totalBytes += msg.getMessageLength();
+				PayloadCodecs.decode(msg);
+				batch.add(msg);
+			}
+		} catch (Exception e) {
+			try {
+				this.backout();
+			} catch (MQException e1) {
+				// A broken connection backs out the unit of work anyway
+			}
+			throw e;
+		}
+
+		this.noMessageFound = batch.isEmpty();
+		if (!batch.isEmpty()) {
+			this.message = batch.get(batch.size() - 1);
+		}
+		return batch;
+	}
+
+	/**
+	 * Is the reason code a warning from MQGMO_CONVERT? The message is returned unconverted and removed from the queue.
+	 * 
+	 * @param reasonCode
+	 * @return
+	 */
+	private static boolean isConversionWarning(int reasonCode) {
+		switch (reasonCode) {
+		case MQConstants.MQRC_FORMAT_ERROR:
+		case MQConstants.MQRC_NOT_CONVERTED:
+		case MQConstants.MQRC_CONVERTED_MSG_TOO_BIG:
+		case MQConstants.MQRC_SOURCE_CCSID_ERROR:
+		case MQConstants.MQRC_TARGET_CCSID_ERROR:
+		case MQConstants.MQRC_SOURCE_INTEGER_ENC_ERROR:
+		case MQConstants.MQRC_TARGET_INTEGER_ENC_ERROR:
+		case MQConstants.MQRC_SOURCE_DECIMAL_ENC_ERROR:
+		case MQConstants.MQRC_TARGET_DECIMAL_ENC_ERROR:
+		case MQConstants.MQRC_SOURCE_FLOAT_ENC_ERROR:
+		case MQConstants.MQRC_TARGET_FLOAT_ENC_ERROR:
+		case MQConstants.MQRC_SOURCE_LENGTH_ERROR:
+		case MQConstants.MQRC_TARGET_LENGTH_ERROR:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Commit the messages got under syncpoint on this connection, removing them from the queue
+	 * 
+	 * @throws MQException
+	 */
+	public final void commit() throws MQException {
+		this.connector.getQueueManager().commit();
+	}
+
+	/**
+	 * Back out the messages got under syncpoint on this connection, returning them to the queue
+	 * 
+	 * @throws MQException
+	 */
+	public final void backout() throws MQException {
+		this.connector.getQueueManager().backout();
+	}
+
+	/**
+	 * Get the next logical message as a stream, reassembling it from its segments as the stream is read. A message that
+	 * was not segmented is returned as a stream of one segment. The stream must be closed: reading to the end and closing
+	 * commits the gets, closing earlier backs them out. See {@link OutputQueue#sendSegmentedMessage}.
+	 * 
+	 * @param waitInterval
+	 *            How long to wait (milliseconds) for a complete logical message to arrive
+	 * @return The message stream, or null if no complete logical message arrived
+	 * @throws MQException
+	 */
+	public final SegmentedMessageInputStream getSegmentedMessage(int waitInterval) throws MQException, Exception {
+		if (queue == null) {
+			this.openForGet();
+		}
+		this.noMessageFound = false;
+		try {
+			return new SegmentedMessageInputStream(this.connector, this.queue, waitInterval);
+		} catch (MQException e) {
+			if (e.reasonCode == MQConstants.MQRC_NO_MSG_AVAILABLE) {
+				this.noMessageFound = true;
+				return null;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Close the queue without losing messages that read ahead has already sent to the client. The queue is closed with
+	 * MQCO_QUIESCE; while the queue manager reports that unread messages remain (MQRC_READ_AHEAD_MSGS), they are got
+	 * from the client buffer and the close is tried again. For a queue opened without read ahead this is the same as
+	 * {@link #close()}.
+	 * 
+	 * The drained messages have already been removed from the queue, so they are never discarded: if a get or the
+	 * close fails once some have been drained, they are returned and the queue is left open. Call this method again to
+	 * finish closing; the error is then thrown if it persists.
+	 * 
+	 * @return The messages that were in the client buffer, to be processed by the caller
+	 * @throws MQException
+	 */
+	public final List<MQMessage> closeAndDrain() throws MQException, Exception {
+		List<MQMessage> unread = new ArrayList<MQMessage>();
+		if (queue == null) {
+			return unread;
+		}
+		for (;;) {
+			this.queue.setCloseOptions(MQConstants.MQCO_QUIESCE);
+			try {
+				this.queue.close();
+				this.queue = null;
+				return unread;
+			} catch (MQException e) {
+				if (e.reasonCode != MQConstants.MQRC_READ_AHEAD_MSGS) {
+					if (unread.isEmpty()) {
+						throw e;
+					}
+					return unread;
+				}
+			}
+
+			// Get the messages already sent to the client, with the same options as the other gets
+			try {
+				while (this.getMessage(this.lastGetConvert, false, false, this.WAIT_NONE, null) != null) {
+					unread.add(this.message);
+				}
+			} catch (Exception e) {
+				// Once quiesced, an empty client buffer is reported as MQRC_HOBJ_QUIESCED_NO_MSGS; try the close again
+				if (!(e instanceof MQException) || ((MQException) e).reasonCode != MQConstants.MQRC_HOBJ_QUIESCED_NO_MSGS) {
+					if (unread.isEmpty()) {
+						throw e;
+					}
+					return unread;
+				}
+			}
+		}
+	}
+
 	/**
 	 * Browse and print all messages to the console
 	 * 
@@ -0,0 +1,118 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram that can be recorded to from many threads. Values are counted in power of two buckets of
+ * nanoseconds, so percentiles are accurate to within a factor of two, which is enough to see where time is spent.
+ *
+ */
+public class LatencyStats {
+
+	private static final int BUCKETS = 64;
+
+	// Bucket n counts values from 2^(n-1) up to 2^n - 1 nanoseconds; bucket 0 counts zero
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+	private final LongAdder count = new LongAdder();
+
+	private final LongAdder total = new LongAdder();
+
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record a latency
+	 * 
+	 * @param nanos Latency in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		this.buckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(nanos));
+		this.count.increment();
+		this.total.add(nanos);
+		long current = this.max.get();
+		while (nanos > current && !this.max.compareAndSet(current, nanos)) {
+			current = this.max.get();
+		}
+	}
+
+	public long getCount() {
+		return this.count.sum();
+	}
+
+	public double getMeanNanos() {
+		long n = this.count.sum();
+		return n == 0 ? 0 : (double) this.total.sum() / n;
+	}
+
+	public long getMaxNanos() {
+		return this.max.get();
+	}
+
+	/**
+	 * Return the upper bound of the bucket holding the passed percentile
+	 * 
+	 * @param percentile Between 0 and 100
+	 * @return
+	 */
+	public long getPercentileNanos(double percentile) {
+		long n = this.count.sum();
+		if (n == 0) {
+			return 0;
+		}
+		long target = (long) Math.ceil(n * percentile / 100.0);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += this.buckets.get(i);
+			if (seen >= target) {
+				return i == 0 ? 0 : Math.min((1L << i) - 1, this.max.get());
+			}
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * Clear all recorded values
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			this.buckets.set(i, 0);
+		}
+		this.count.reset();
+		this.total.reset();
+		this.max.set(0);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus max=%.1fus", this.getCount(), this.getMeanNanos() / 1000.0,
+				this.getPercentileNanos(50) / 1000.0, this.getPercentileNanos(99) / 1000.0, this.getMaxNanos() / 1000.0);
+	}
+}
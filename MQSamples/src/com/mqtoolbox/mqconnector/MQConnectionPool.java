@@ -23,6 +23,565 @@ SOFTWARE.
  */
 package com.mqtoolbox.mqconnector;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLSocketFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.constants.MQConstants;
+
+/**
+ * A bounded pool of queue manager connections. Connections are kept per key, where the key identifies the queue
+ * manager and the connection parameters used to reach it. Borrowed connections are plain {@link Connector} objects, so
+ * they can be passed to {@link OutputQueue}, {@link InputQueueGet} etc. unchanged. Always return a borrowed connection
+ * using {@link #release(Connector)}, or {@link #invalidate(Connector)} if it is known to be broken.
+ *
+ * <pre>
+ * MQConnectionPool pool = new MQConnectionPool(1, 10, 300000);
+ * Connector connector = pool.borrowBindConnector("QMGR1", 5000);
+ * try {
+ * 	OutputQueue queue = new OutputQueue(connector, "ZTEST.QMGR1.QL");
+ * 	...
+ * } finally {
+ * 	pool.release(connector);
+ * }
+ * </pre>
+ *
+ */
 public class MQConnectionPool {
-//TODO - code something
+	public final long WAIT_NONE = 0;
+
+	public final long WAIT_5_SECONDS = 5000;
+
+	public final long WAIT_UNLIMITED = -1;
+
+	private int minSize = 0;
+
+	private int maxSize = 0;
+
+	private long idleTimeout = 0;
+
+	private boolean validateOnBorrow = true;
+
+	private volatile boolean closed = false;
+
+	// One partition per key
+	private final ConcurrentHashMap<String, Partition> partitions = new ConcurrentHashMap<String, Partition>();
+
+	// Borrowed connections and the partition they belong to
+	private final Map<Connector, Partition> borrowed = Collections.synchronizedMap(new IdentityHashMap<Connector, Partition>());
+
+	private ScheduledExecutorService evictor = null;
+
+	/**
+	 * Create a new connection pool
+	 *
+	 * @param minSize
+	 *                    Minimum number of connections kept open per key once the key has been used
+	 * @param maxSize
+	 *                    Maximum number of connections (idle and borrowed) per key
+	 * @param idleTimeout
+	 *                    Idle connections above the minimum size are disconnected after this many milliseconds. Specify
+	 *                    0 to never evict.
+	 */
+	public MQConnectionPool(int minSize, int maxSize, long idleTimeout) {
+		if (maxSize < 1 || minSize < 0 || minSize > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size; min " + minSize + ", max " + maxSize);
+		}
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Build a pool key from the queue manager name and the parameters used to connect to it
+	 *
+	 * @param qmgrName
+	 *                             Queue manager name
+	 * @param connectionParameters
+	 *                             Any values that make the connection different, such as channel, host and port
+	 * @return
+	 */
+	public static String createKey(String qmgrName, Object... connectionParameters) {
+		StringBuilder key = new StringBuilder(qmgrName.trim());
+		for (Object parameter : connectionParameters) {
+			key.append('|').append(parameter == null ? "" : parameter.toString().trim());
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Borrow a bind connection to the queue manager
+	 *
+	 * @param qmgrName
+	 *                 Queue manager name
+	 * @param timeout
+	 *                 How long to wait (milliseconds) for a connection to become free when the pool is at its maximum
+	 *                 size. Specify WAIT_UNLIMITED to wait forever.
+	 * @return
+	 * @throws MQException
+	 */
+	public Connector borrowBindConnector(final String qmgrName, long timeout) throws MQException {
+		return this.borrow(createKey(qmgrName, "bind"), new ConnectorFactory() {
+			public Connector create() throws MQException {
+				return new BindConnector(qmgrName);
+			}
+		}, timeout);
+	}
+
+	/**
+	 * Borrow a client connection to the queue manager
+	 *
+	 * @param qmgrName
+	 *                    Queue manager to connect to
+	 * @param channelName
+	 *                    SVRCONN channel name
+	 * @param hostName
+	 *                    Hostname or IP of the server hosting the queue manager
+	 * @param port
+	 *                    Listener port
+	 * @param jksFileName
+	 *                    (Optional) For SSL connections specify the JKS file name. For non-SSL connections specify null.
+	 * @param jksPassword
+	 *                    (Optional) For SSL connections specify the JKS file password. For non-SSL connections specify
+	 *                    null.
+	 * @param timeout
+	 *                    How long to wait (milliseconds) for a connection to become free when the pool is at its
+	 *                    maximum size. Specify WAIT_UNLIMITED to wait forever.
+	 * @return
+	 * @throws MQException
+	 */
+	public Connector borrowClientConnector(final String qmgrName, final String channelName, final String hostName, final int port,
+			final String jksFileName, final String jksPassword, long timeout) throws MQException {
+		return this.borrow(createKey(qmgrName, "client", channelName, hostName, port, jksFileName), new ConnectorFactory() {
+			public Connector create() throws MQException {
+				return new ClientConnector(qmgrName, channelName, hostName, port, jksFileName, jksPassword);
+			}
+		}, timeout);
+	}
+
+	/**
+	 * Borrow a client connection to the queue manager. The connection details are kept per connection, so new connections
+	 * to different queue managers are created in parallel.
+	 *
+	 * @param qmgrName
+	 *                         Queue manager to connect to
+	 * @param channelName
+	 *                         SVRCONN channel name
+	 * @param hostName
+	 *                         Hostname or IP of the server hosting the queue manager
+	 * @param port
+	 *                         Listener port
+	 * @param sslSocketFactory
+	 *                         (Optional) For SSL connections specify the socket factory. For non-SSL connections specify
+	 *                         null.
+	 * @param sslCipherSuite
+	 *                         (Optional) For SSL connections specify the CipherSuite. For non-SSL connections specify
+	 *                         null.
+	 * @param timeout
+	 *                         How long to wait (milliseconds) for a connection to become free when the pool is at its
+	 *                         maximum size. Specify WAIT_UNLIMITED to wait forever.
+	 * @return
+	 * @throws MQException
+	 */
+	public Connector borrowClientConnectorWithSocketFactory(final String qmgrName, String channelName, String hostName, int port,
+			SSLSocketFactory sslSocketFactory, String sslCipherSuite, long timeout) throws MQException {
+		final Hashtable<String, Object> props = ClientConnector.createConnectionProperties(channelName, hostName, port, sslSocketFactory,
+				sslCipherSuite);
+		String sslKey = sslSocketFactory == null ? null : Integer.toHexString(System.identityHashCode(sslSocketFactory));
+		String key = createKey(qmgrName, "client", channelName, hostName, port, sslKey, sslCipherSuite);
+		return this.borrow(key, new ConnectorFactory() {
+			public Connector create() throws MQException {
+				return new ClientConnector(qmgrName, props);
+			}
+		}, timeout);
+	}
+
+	/**
+	 * Borrow a connection for the key. An idle connection is returned if one is available, otherwise a new connection is
+	 * created using the factory, providing the pool has not reached its maximum size for the key.
+	 *
+	 * @param key
+	 *                Identifies the queue manager and connection parameters. See {@link #createKey(String, Object...)}
+	 * @param factory
+	 *                Used to create a new connection when required
+	 * @param timeout
+	 *                How long to wait (milliseconds) for a connection to become free when the pool is at its maximum
+	 *                size. Specify WAIT_UNLIMITED to wait forever.
+	 * @return
+	 * @throws MQException
+	 *                     MQRC_MAX_CONNS_LIMIT_REACHED if no connection became free within the timeout
+	 */
+	public Connector borrow(String key, ConnectorFactory factory, long timeout) throws MQException {
+		Partition partition = this.getPartition(key, factory);
+		long deadline = timeout < 0 ? Long.MAX_VALUE : System.currentTimeMillis() + timeout;
+
+		while (true) {
+			Connector connector = null;
+			boolean create = false;
+
+			// Take an idle connection or reserve a slot for a new one
+			synchronized (partition) {
+				while (true) {
+					this.checkNotClosed();
+					if (!partition.idle.isEmpty()) {
+						// Most recently used first; the oldest drift to the front and are evicted
+						connector = partition.idle.removeLast().connector;
+						break;
+					}
+					if (partition.total < this.maxSize) {
+						partition.total++;
+						create = true;
+						break;
+					}
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						throw new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_MAX_CONNS_LIMIT_REACHED, this);
+					}
+					try {
+						partition.wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_UNEXPECTED_ERROR, this);
+					}
+				}
+			}
+
+			// Connect outside the lock so that other keys and releases are not held up
+			if (create) {
+				try {
+					connector = factory.create();
+				} catch (MQException e) {
+					this.discard(partition, null);
+					throw e;
+				}
+			} else if (this.validateOnBorrow && !connector.isConnected()) {
+				this.discard(partition, connector);
+				continue;
+			}
+
+			this.borrowed.put(connector, partition);
+			return connector;
+		}
+	}
+
+	/**
+	 * Return a borrowed connection to the pool
+	 *
+	 * @param connector
+	 */
+	public void release(Connector connector) {
+		Partition partition = this.borrowed.remove(connector);
+		if (partition == null) {
+			return; // not borrowed from this pool
+		}
+
+		synchronized (partition) {
+			if (!this.closed && connector.isConnected()) {
+				partition.idle.addLast(new PooledConnector(connector));
+				partition.notifyAll();
+				return;
+			}
+		}
+		this.discard(partition, connector);
+	}
+
+	/**
+	 * Return a borrowed connection that is known to be broken. The connection is disconnected and removed from the pool.
+	 *
+	 * @param connector
+	 */
+	public void invalidate(Connector connector) {
+		Partition partition = this.borrowed.remove(connector);
+		if (partition != null) {
+			this.discard(partition, connector);
+		}
+	}
+
+	/**
+	 * Open connections for the key until it holds at least the requested number of idle connections or reaches its
+	 * maximum size. Used to warm up the pool before the first request.
+	 *
+	 * @param key
+	 * @param factory
+	 * @param count
+	 * @return The number of new connections opened
+	 * @throws MQException
+	 */
+	public int prefill(String key, ConnectorFactory factory, int count) throws MQException {
+		return this.fill(this.getPartition(key, factory), factory, count, true);
+	}
+
+	/**
+	 * Open idle connections for the partition until it holds the requested number of connections or reaches its maximum
+	 * size
+	 *
+	 * @param partition
+	 * @param factory
+	 * @param count
+	 * @param idleOnly
+	 *                  Count only idle connections towards the requested number; otherwise count borrowed connections
+	 *                  and those being created too
+	 * @return The number of new connections opened
+	 * @throws MQException
+	 */
+	private int fill(Partition partition, ConnectorFactory factory, int count, boolean idleOnly) throws MQException {
+		int opened = 0;
+
+		while (true) {
+			synchronized (partition) {
+				this.checkNotClosed();
+				int held = idleOnly ? partition.idle.size() : partition.total;
+				if (held >= count || partition.total >= this.maxSize) {
+					return opened;
+				}
+				partition.total++;
+			}
+
+			Connector connector = null;
+			try {
+				connector = factory.create();
+			} catch (MQException e) {
+				this.discard(partition, null);
+				throw e;
+			}
+
+			synchronized (partition) {
+				partition.idle.addLast(new PooledConnector(connector));
+				partition.notifyAll();
+			}
+			opened++;
+		}
+	}
+
+	/**
+	 * Disconnect connections that have been idle for longer than the idle timeout, keeping at least the minimum number of
+	 * connections for each key. Then top each key back up to the minimum size.
+	 */
+	public void evictIdle() {
+		long now = System.currentTimeMillis();
+
+		for (Partition partition : this.partitions.values()) {
+			List<Connector> expired = new ArrayList<Connector>();
+
+			synchronized (partition) {
+				Iterator<PooledConnector> it = partition.idle.iterator();
+				while (it.hasNext()) {
+					PooledConnector pc = it.next();
+					boolean idleTooLong = this.idleTimeout > 0 && now - pc.lastUsed > this.idleTimeout && partition.total > this.minSize;
+					if (idleTooLong || !pc.connector.isConnected()) {
+						it.remove();
+						partition.total--;
+						expired.add(pc.connector);
+					}
+				}
+				partition.notifyAll();
+			}
+
+			for (Connector connector : expired) {
+				disconnectQuietly(connector);
+			}
+
+			// Top the total, not the idle connections, back up to the minimum, or borrowed connections would cause extra
+			// idle connections to be opened and evicted on every run. A failure here is retried on the next run.
+			if (!this.closed && this.minSize > 0) {
+				try {
+					this.fill(partition, partition.factory, this.minSize, false);
+				} catch (MQException e) {
+					// Ignore; the queue manager may be unavailable
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start a background thread that calls {@link #evictIdle()} at the given interval
+	 *
+	 * @param intervalMillis
+	 */
+	public synchronized void startEvictor(long intervalMillis) {
+		if (this.evictor != null) {
+			return;
+		}
+		this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "MQConnectionPool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		this.evictor.scheduleWithFixedDelay(this::evictIdle, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Close the pool. Idle connections are disconnected immediately and borrowed connections are disconnected when they
+	 * are released.
+	 */
+	public void close() {
+		synchronized (this) {
+			this.closed = true;
+			if (this.evictor != null) {
+				this.evictor.shutdownNow();
+				this.evictor = null;
+			}
+		}
+
+		for (Partition partition : this.partitions.values()) {
+			List<PooledConnector> idle;
+			synchronized (partition) {
+				idle = new ArrayList<PooledConnector>(partition.idle);
+				partition.total -= idle.size();
+				partition.idle.clear();
+				partition.notifyAll();
+			}
+			for (PooledConnector pc : idle) {
+				disconnectQuietly(pc.connector);
+			}
+		}
+	}
+
+	/**
+	 * Return the number of idle connections for the key
+	 *
+	 * @param key
+	 * @return
+	 */
+	public int getIdleCount(String key) {
+		Partition partition = this.partitions.get(key);
+		if (partition == null) {
+			return 0;
+		}
+		synchronized (partition) {
+			return partition.idle.size();
+		}
+	}
+
+	/**
+	 * Return the number of open connections (idle and borrowed) for the key
+	 *
+	 * @param key
+	 * @return
+	 */
+	public int getTotalCount(String key) {
+		Partition partition = this.partitions.get(key);
+		if (partition == null) {
+			return 0;
+		}
+		synchronized (partition) {
+			return partition.total;
+		}
+	}
+
+	/**
+	 * Return the maximum number of connections (idle and borrowed) per key
+	 *
+	 * @return
+	 */
+	public int getMaxSize() {
+		return this.maxSize;
+	}
+
+	/**
+	 * Should idle connections be checked before they are handed out? Defaults to true.
+	 *
+	 * @param validateOnBorrow
+	 */
+	public void setValidateOnBorrow(boolean validateOnBorrow) {
+		this.validateOnBorrow = validateOnBorrow;
+	}
+
+	/**
+	 * Return the partition for the key, creating it if needed
+	 *
+	 * @param key
+	 * @param factory
+	 * @return
+	 * @throws MQException
+	 */
+	private Partition getPartition(String key, ConnectorFactory factory) throws MQException {
+		this.checkNotClosed();
+		Partition partition = this.partitions.get(key);
+		if (partition == null) {
+			Partition newPartition = new Partition(key, factory);
+			partition = this.partitions.putIfAbsent(key, newPartition);
+			if (partition == null) {
+				partition = newPartition;
+			}
+		}
+		return partition;
+	}
+
+	/**
+	 * Free the slot held by a connection and disconnect it
+	 *
+	 * @param partition
+	 * @param connector
+	 *                  The connection to disconnect, or null if the connection was never created
+	 */
+	private void discard(Partition partition, Connector connector) {
+		synchronized (partition) {
+			partition.total--;
+			partition.notifyAll();
+		}
+		if (connector != null) {
+			disconnectQuietly(connector);
+		}
+	}
+
+	private void checkNotClosed() throws MQException {
+		if (this.closed) {
+			throw new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_CONNECTION_STOPPED, this);
+		}
+	}
+
+	private static void disconnectQuietly(Connector connector) {
+		try {
+			connector.disconnect();
+		} catch (MQException e) {
+			// Ignore any errors
+		}
+	}
+
+	/**
+	 * Connections for one key
+	 *
+	 */
+	private static final class Partition {
+		private final String key;
+
+		private final ConnectorFactory factory;
+
+		private final LinkedList<PooledConnector> idle = new LinkedList<PooledConnector>();
+
+		private int total = 0; // idle + borrowed + being created
+
+		Partition(String key, ConnectorFactory factory) {
+			this.key = key;
+			this.factory = factory;
+		}
+	}
+
+	/**
+	 * An idle connection and when it was returned to the pool
+	 *
+	 */
+	private static final class PooledConnector {
+		private final Connector connector;
+
+		private final long lastUsed;
+
+		PooledConnector(Connector connector) {
+			this.connector = connector;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
 }
@@ -24,9 +24,15 @@ SOFTWARE.
 package com.mqtoolbox.mqconnector;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
 
+import com.ibm.mq.MQAsyncStatus;
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQPutMessageOptions;
 import com.ibm.mq.MQQueue;
 import com.ibm.mq.constants.MQConstants;
 
@@ -53,6 +59,29 @@ public class OutputQueue {
 
 	private String overrideMessageFormat = null;
 
+	// Connection generation the queue handle was opened on
+	private long handleGeneration = -1;
+
+	private int maxPutRetries = 5;
+
+	private long initialRetryBackoff = 100;
+
+	private long maxRetryBackoff = 5000;
+
+	private boolean asyncPut = false;
+
+	// Reuse one message and one set of put options for every send, rather than allocating new ones
+	private boolean reuseMessage = false;
+
+	private MQMessage reusableMessage = null;
+
+	private MQPutMessageOptions reusablePutOptions = null;
+
+	// Payloads of at least codecThreshold bytes are encoded (for example compressed) with this codec
+	private PayloadCodec codec = null;
+
+	private int codecThreshold = 0;
+
 	/**
 	 * Create a new Output Queue. The queue is automatically opened.
 	 * 
@@ -106,7 +135,7 @@ public class OutputQueue {
 	 */
 	public void sendRequestMessage(byte[] requestMessage, String replyToQueueName, int expiryTime) throws IOException, MQException {
 		// Init
-		this.message = new MQMessage();
+		this.message = this.newMessage();
 
 		// Write the message
 		this.message.messageType = MQConstants.MQMT_REQUEST;
@@ -118,7 +147,7 @@ public class OutputQueue {
 		this.message.expiry = expiryTime;
 		this.message.messageId = MQConstants.MQMI_NONE;
 		this.message.correlationId = MQConstants.MQCI_NONE;
-		this.message.write(requestMessage);
+		this.writePayload(requestMessage);
 
 		// Put the message
 		this.put();
@@ -149,7 +178,7 @@ public class OutputQueue {
 	 */
 	public void sendReplyMessage(byte[] replyMessage, int expiryTime, byte[] setCorrelationId) throws IOException, MQException {
 		// Init
-		this.message = new MQMessage();
+		this.message = this.newMessage();
 
 		// Write the message
 		this.message.messageType = MQConstants.MQMT_REPLY;
@@ -160,7 +189,7 @@ public class OutputQueue {
 		this.message.expiry = expiryTime;
 		this.message.messageId = MQConstants.MQMI_NONE;
 		this.message.correlationId = setCorrelationId;
-		this.message.write(replyMessage);
+		this.writePayload(replyMessage);
 
 		// Put the message
 		this.put();
@@ -171,8 +200,219 @@ public class OutputQueue {
 	}
 
 	public void sendDatagramMessage(byte[] datagramMessage, int expiryTime) throws IOException, MQException {
+		// Write the message
+		this.writeDatagramMessage(datagramMessage, expiryTime);
+
+		// Put the message
+		this.put();
+
+		// Reset these after the put
+		this.overrideMessageFormat = null;
+	}
+
+	/**
+	 * Send a list of datagram messages as one unit of work. The messages are put under syncpoint and committed with a
+	 * single commit, so persistent messages need one log force for the whole batch rather than one per message. If the
+	 * connection is lost the unit of work is backed out and the whole batch is retried on the re-established connection.
+	 * If the connection is lost during the commit itself the outcome is unknown, as the commit may have completed, so the
+	 * batch is not retried and the exception is thrown; the caller decides whether to resend, which may duplicate it.
+	 * 
+	 * Note: the commit applies to the connection, so any other uncommitted work on the same connector is committed too.
+	 * 
+	 * @param datagramMessages
+	 *                         The messages to send
+	 * @param expiryTime
+	 *                         Expiry time in 1/10ths second of each message
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	public void sendDatagramBatch(List<byte[]> datagramMessages, int expiryTime) throws IOException, MQException {
+		for (int attempt = 0;; attempt++) {
+			boolean committing = false;
+			try {
+				if (attempt > 0) {
+					this.backoff(attempt);
+					this.recoverConnection();
+				}
+				for (byte[] datagramMessage : datagramMessages) {
+					this.sendDatagramMessageUnderSyncpoint(datagramMessage, expiryTime);
+				}
+				committing = true;
+				this.commit();
+				break;
+			} catch (MQException e) {
+				this.backoutQuietly();
+				// A failed commit is in doubt; retrying could send the batch twice
+				boolean retry = !committing && Connector.isConnectionError(e.reasonCode) && attempt < this.maxPutRetries;
+				if (!retry || this.connector.getCircuitBreaker().isOpen()) {
+					this.overrideMessageFormat = null;
+					throw e;
+				}
+			}
+		}
+
+		// Reset these after the batch
+		this.overrideMessageFormat = null;
+	}
+
+	/**
+	 * Send a large payload as one logical message split into segments, so that no single physical message exceeds the
+	 * channel or queue maximum message length and the payload is never held in memory as a whole. The payload is read from
+	 * the stream one segment at a time. The segments are put in logical order under syncpoint and committed together,
+	 * so a consumer using {@link InputQueueGet#getSegmentedMessage(int)} sees all of them or none. The queue manager's
+	 * log must be able to hold the whole payload in one unit of work.
+	 * 
+	 * The put is not retried if the connection is lost, as the stream cannot be read again; the unit of work is backed
+	 * out and the caller must resend. The message format is the override format if set, otherwise MQFMT_NONE.
+	 * 
+	 * Note: the commit applies to the connection, so any other uncommitted work on the same connector is committed too.
+	 * 
+	 * @param payload
+	 *                    Stream holding the payload; read to the end but not closed
+	 * @param segmentSize
+	 *                    Maximum bytes in each segment; must be less than the maximum message length of the channel
+	 *                    and queue, allowing for the message headers
+	 * @param expiryTime
+	 *                    Expiry time in 1/10ths second of each segment
+	 * @return The group id shared by the segments
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	public byte[] sendSegmentedMessage(InputStream payload, int segmentSize, int expiryTime) throws IOException, MQException {
+		byte[] current = new byte[segmentSize];
+		byte[] next = new byte[segmentSize];
+		int currentLength = readSegment(payload, current);
+
+		if (this.queue == null || this.handleGeneration != this.connector.getConnectionGeneration()) {
+			this.reopen();
+		}
+		MQPutMessageOptions pmo = new MQPutMessageOptions();
+		pmo.options = MQConstants.MQPMO_LOGICAL_ORDER | MQConstants.MQPMO_SYNCPOINT | MQConstants.MQPMO_FAIL_IF_QUIESCING;
+		MQMessage segment = new MQMessage();
+		try {
+			for (;;) {
+				// Read ahead one segment to know whether the current one is the last
+				int nextLength = currentLength < segmentSize ? 0 : readSegment(payload, next);
+				segment.clearMessage();
+				segment.messageType = MQConstants.MQMT_DATAGRAM;
+				segment.format = this.overrideMessageFormat != null ? this.overrideMessageFormat : MQConstants.MQFMT_NONE;
+				segment.expiry = expiryTime;
+				segment.messageId = MQConstants.MQMI_NONE;
+				segment.correlationId = MQConstants.MQCI_NONE;
+				segment.messageFlags = nextLength == 0 ? MQConstants.MQMF_LAST_SEGMENT : MQConstants.MQMF_SEGMENT;
+				segment.write(current, 0, currentLength);
+				this.queue.put(segment, pmo);
+				if (nextLength == 0) {
+					break;
+				}
+				byte[] swap = current;
+				current = next;
+				next = swap;
+				currentLength = nextLength;
+			}
+			this.commit();
+		} catch (MQException | IOException e) {
+			this.backoutQuietly();
+			this.overrideMessageFormat = null;
+			throw e;
+		}
+		this.message = segment;
+		return segment.groupId.clone();
+	}
+
+	/**
+	 * Fill the buffer from the stream, returning the number of bytes read; less than the buffer size only at the end of
+	 * the stream
+	 * 
+	 * @param in
+	 * @param buffer
+	 * @return
+	 * @throws IOException
+	 */
+	private static int readSegment(InputStream in, byte[] buffer) throws IOException {
+		int length = 0;
+		while (length < buffer.length) {
+			int read = in.read(buffer, length, buffer.length - length);
+			if (read < 0) {
+				break;
+			}
+			length += read;
+		}
+		return length;
+	}
+
+	/**
+	 * Put a datagram message under syncpoint. The message is not visible until {@link #commit()} is called. The put is not
+	 * retried if the connection is lost, as the rest of the unit of work is lost with it; the caller must redo the unit
+	 * of work. The override format remains set until the unit of work is complete.
+	 * 
+	 * @param datagramMessage
+	 *                        The message to send
+	 * @param expiryTime
+	 *                        Expiry time in 1/10ths second of the message
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	public void sendDatagramMessageUnderSyncpoint(byte[] datagramMessage, int expiryTime) throws IOException, MQException {
+		this.writeDatagramMessage(datagramMessage, expiryTime);
+
+		if (this.queue == null || this.handleGeneration != this.connector.getConnectionGeneration()) {
+			this.reopen();
+		}
+		this.queue.put(this.message, this.createPutOptions(MQConstants.MQPMO_SYNCPOINT | MQConstants.MQPMO_FAIL_IF_QUIESCING));
+	}
+
+	/**
+	 * Commit the messages put under syncpoint on this connection
+	 * 
+	 * @throws MQException
+	 */
+	public void commit() throws MQException {
+		this.connector.getQueueManager().commit();
+		this.overrideMessageFormat = null;
+	}
+
+	/**
+	 * Back out the messages put under syncpoint on this connection
+	 * 
+	 * @throws MQException
+	 */
+	public void backout() throws MQException {
+		this.connector.getQueueManager().backout();
+		this.overrideMessageFormat = null;
+	}
+
+	/**
+	 * Back out, ignoring errors; a broken connection backs out the unit of work anyway
+	 */
+	private void backoutQuietly() {
+		try {
+			this.connector.getQueueManager().backout();
+		} catch (MQException e) {
+			// Ignore any errors
+		}
+	}
+
+	/**
+	 * Re-establish the connection (if another user of the connector has not already done so) and re-open the queue
+	 * 
+	 * @throws MQException
+	 */
+	public void recoverConnection() throws MQException {
+		this.connector.recover(this.handleGeneration);
+		this.reopen();
+	}
+
+	/**
+	 * Build a new datagram message
+	 * 
+	 * @param datagramMessage
+	 * @param expiryTime
+	 * @throws IOException
+	 */
+	private void writeDatagramMessage(byte[] datagramMessage, int expiryTime) throws IOException {
 		// Init
-		this.message = new MQMessage();
+		this.message = this.newMessage();
 
 		// Write the message
 		this.message.messageType = MQConstants.MQMT_DATAGRAM;
@@ -183,13 +423,7 @@ public class OutputQueue {
 		this.message.expiry = expiryTime;
 		this.message.messageId = MQConstants.MQMI_NONE;
 		this.message.correlationId = MQConstants.MQCI_NONE;
-		this.message.write(datagramMessage);
-
-		// Put the message
-		this.put();
-
-		// Reset these after the put
-		this.overrideMessageFormat = null;
+		this.writePayload(datagramMessage);
 	}
 
 	public void sendDatagramMessage(MQMessage datagramMessage) throws IOException, MQException {
@@ -201,31 +435,239 @@ public class OutputQueue {
 	}
 
 	/**
-	 * Put the message
+	 * Put the message. If the connection is lost, the connection is re-established (shared with any other queues using
+	 * the same connector), the queue is re-opened with its original open options and the put is retried with an
+	 * exponential backoff. A put that failed with a connection error may or may not have reached the queue, so a retry
+	 * can result in a duplicate message.
 	 * 
 	 * @throws MQException
 	 */
 	private void put() throws MQException {
-		try {
-			this.queue.put(this.message);
-		} catch (MQException e) {
-			if (e.reasonCode == MQConstants.MQRC_CONNECTION_BROKEN) {
-				try {
-					this.connector.reconnect();
-				} catch (MQException e2) {
-					throw (e2);
+		for (int attempt = 0;; attempt++) {
+			try {
+				if (attempt > 0) {
+					this.backoff(attempt);
+					this.recoverConnection();
+				} else if (this.queue == null || this.handleGeneration != this.connector.getConnectionGeneration()) {
+					// The connection was re-established by another user of the connector
+					this.reopen();
 				}
-				try {
-					this.queue.put(this.message);
-				} catch (MQException e1) {
-					throw (e1);
+				this.queue.put(this.message, this.createPutOptions());
+				return;
+			} catch (MQException e) {
+				boolean retry = Connector.isConnectionError(e.reasonCode) && attempt < this.maxPutRetries;
+				if (!retry || this.connector.getCircuitBreaker().isOpen()) {
+					throw e;
 				}
-			} else {
-				throw (e);
 			}
 		}
 	}
 
+	/**
+	 * Return the put options for a put outside syncpoint
+	 * 
+	 * @return
+	 */
+	private MQPutMessageOptions createPutOptions() {
+		if (this.asyncPut) {
+			return this.createPutOptions(asyncPutOptions(this.message));
+		}
+		return this.createPutOptions(MQConstants.MQPMO_NONE);
+	}
+
+	/**
+	 * Return the put options for an asynchronous put of the message outside syncpoint. An asynchronous put only returns
+	 * a message id the client generated itself, so one is requested if the message has none.
+	 * 
+	 * @param message
+	 * @return
+	 */
+	static int asyncPutOptions(MQMessage message) {
+		int options = MQConstants.MQPMO_ASYNC_RESPONSE | MQConstants.MQPMO_NO_SYNCPOINT | MQConstants.MQPMO_FAIL_IF_QUIESCING;
+		if (Arrays.equals(message.messageId, MQConstants.MQMI_NONE)) {
+			options |= MQConstants.MQPMO_NEW_MSG_ID;
+		}
+		return options;
+	}
+
+	/**
+	 * Return put options set to the passed options; the same object each time in reuse mode
+	 * 
+	 * @param options
+	 * @return
+	 */
+	private MQPutMessageOptions createPutOptions(int options) {
+		MQPutMessageOptions pmo;
+		if (this.reuseMessage) {
+			if (this.reusablePutOptions == null) {
+				this.reusablePutOptions = new MQPutMessageOptions();
+			}
+			pmo = this.reusablePutOptions;
+		} else {
+			pmo = new MQPutMessageOptions();
+		}
+		pmo.options = options;
+		return pmo;
+	}
+
+	/**
+	 * Return an empty message to write; the same object each time in reuse mode. The descriptor fields the queue manager
+	 * fills in on a put and that are not set by every send method are reset here.
+	 * 
+	 * @return
+	 * @throws IOException
+	 */
+	private MQMessage newMessage() throws IOException {
+		if (!this.reuseMessage) {
+			return new MQMessage();
+		}
+		if (this.reusableMessage == null) {
+			this.reusableMessage = new MQMessage();
+		} else {
+			this.reusableMessage.clearMessage();
+			this.reusableMessage.replyToQueueName = "";
+			this.reusableMessage.replyToQueueManagerName = "";
+		}
+		return this.reusableMessage;
+	}
+
+	/**
+	 * Write the payload to the message, encoding it with the codec if it is large enough and encoding makes it smaller.
+	 * The message format must already be set; it is replaced by the codec's format when the payload is encoded.
+	 * 
+	 * @param payload
+	 * @throws IOException
+	 */
+	private void writePayload(byte[] payload) throws IOException {
+		if (this.codec != null && payload.length >= this.codecThreshold) {
+			byte[] encoded = PayloadCodecs.encode(this.codec, this.message.format, payload);
+			if (encoded.length < payload.length) {
+				this.message.format = this.codec.getFormat();
+				this.message.write(encoded);
+				return;
+			}
+		}
+		this.message.write(payload);
+	}
+
+	/**
+	 * Encode payloads of at least the threshold size with the passed codec before sending, for example to compress
+	 * them. Encoded messages carry the codec's format and are decoded by {@link InputQueueGet} and
+	 * {@link Helper#extractMessagePayloadAsByte(MQMessage)}. Applies to the send methods that take a byte[] payload,
+	 * except segmented messages.
+	 * 
+	 * @param codec
+	 *                  Codec to use, or null to send payloads as they are
+	 * @param threshold
+	 *                  Minimum payload size in bytes to encode
+	 */
+	public void setPayloadCodec(PayloadCodec codec, int threshold) {
+		this.codec = codec;
+		this.codecThreshold = threshold;
+	}
+
+	/**
+	 * Reuse one message object and one put options object for every send from this queue, instead of allocating new
+	 * ones. This reduces garbage at high message rates. In this mode the message returned by {@link #getSentMessage()}
+	 * is overwritten by the next send, so copy any fields needed (such as the message id) before sending again.
+	 * Messages passed in by the caller as an MQMessage are never reused.
+	 * 
+	 * @param reuseMessage
+	 */
+	public void setReuseMessage(boolean reuseMessage) {
+		this.reuseMessage = reuseMessage;
+		if (!reuseMessage) {
+			this.reusableMessage = null;
+			this.reusablePutOptions = null;
+		}
+	}
+
+	public boolean isReuseMessage() {
+		return reuseMessage;
+	}
+
+	/**
+	 * Put messages asynchronously? When set, a client put returns without waiting for the queue manager to confirm it, so
+	 * the producer is no longer limited by the network round trip. The outcome of each put is not reported to the caller;
+	 * use {@link #checkAsyncPutStatus()} or an {@link AsyncPutStatusMonitor} to find out how many puts succeeded or
+	 * failed. Has no effect for bind connections, where puts are always synchronous. Messages without a message id are
+	 * given one by the client, so the ids returned by the send methods can still be used to correlate replies.
+	 * 
+	 * @param asyncPut
+	 */
+	public void setAsyncPut(boolean asyncPut) {
+		this.asyncPut = asyncPut;
+	}
+
+	public boolean isAsyncPut() {
+		return asyncPut;
+	}
+
+	/**
+	 * Return the outcome of the asynchronous puts made on this connection since the last check. The counts cover every
+	 * queue on the connector, not only this one, and are reset by each check.
+	 * 
+	 * @return
+	 * @throws MQException
+	 */
+	public MQAsyncStatus checkAsyncPutStatus() throws MQException {
+		return this.connector.getQueueManager().getAsyncStatus();
+	}
+
+	/**
+	 * Wait before the next retry. The wait doubles for each attempt up to the maximum, with random jitter so that many
+	 * producers do not retry in step.
+	 * 
+	 * @param attempt
+	 * @throws MQException
+	 */
+	private void backoff(int attempt) throws MQException {
+		long backoff = Math.min(this.maxRetryBackoff, this.initialRetryBackoff << Math.min(attempt - 1, 20));
+		try {
+			Thread.sleep(backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_CONNECTION_BROKEN, this);
+		}
+	}
+
+	/**
+	 * Re-open the queue on the current connection using the original open options
+	 * 
+	 * @throws MQException
+	 */
+	private void reopen() throws MQException {
+		if (this.queue != null) {
+			try {
+				this.queue.close();
+			} catch (MQException e) {
+				// Ignore; the handle belonged to the old connection
+			}
+			this.queue = null;
+		}
+		if (this.remoteQueueManagerName == null || this.remoteQueueManagerName.isEmpty()) {
+			this.openQueueForOutput(this.queueName);
+		} else {
+			this.openQueueForOutput(this.queueName, this.remoteQueueManagerName);
+		}
+	}
+
+	/**
+	 * Set how a put is retried when the connection to the queue manager is lost
+	 * 
+	 * @param maxPutRetries
+	 *                            Maximum number of retries. Specify 0 to fail on the first connection error.
+	 * @param initialRetryBackoff
+	 *                            Wait (milliseconds) before the first retry. Doubles for each further retry.
+	 * @param maxRetryBackoff
+	 *                            Maximum wait (milliseconds) between retries
+	 */
+	public void setPutRetry(int maxPutRetries, long initialRetryBackoff, long maxRetryBackoff) {
+		this.maxPutRetries = maxPutRetries;
+		this.initialRetryBackoff = initialRetryBackoff;
+		this.maxRetryBackoff = maxRetryBackoff;
+	}
+
 	/**
 	 * Open the queue for output
 	 * 
@@ -233,6 +675,7 @@ public class OutputQueue {
 	 */
 	private final void openQueueForOutput(String queueName) throws MQException {
 		int options = MQConstants.MQOO_OUTPUT | MQConstants.MQOO_FAIL_IF_QUIESCING;
+		this.handleGeneration = this.connector.getConnectionGeneration();
 		queue = this.connector.getQueueManager().accessQueue(queueName, options);
 	}
 
@@ -243,6 +686,7 @@ public class OutputQueue {
 	 */
 	private final void openQueueForOutput(String queueName, String targetQueueManagerName) throws MQException {
 		int options = MQConstants.MQOO_OUTPUT | MQConstants.MQOO_FAIL_IF_QUIESCING;
+		this.handleGeneration = this.connector.getConnectionGeneration();
 		queue = this.connector.getQueueManager().accessQueue(queueName, options, targetQueueManagerName, null, null);
 	}
 
@@ -251,6 +695,9 @@ public class OutputQueue {
 	 * 
 	 */
 	public final void close() {
+		if (this.queue == null) {
+			return;
+		}
 		try {
 			this.queue.close();
 			this.queue = null;
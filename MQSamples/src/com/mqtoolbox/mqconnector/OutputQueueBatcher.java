@@ -0,0 +1,214 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.ibm.mq.MQException;
+
+/**
+ * Stream datagram messages to an output queue in units of work. Each message is put under syncpoint as it is added and
+ * the unit of work is committed every maxMessages messages, or when the oldest uncommitted message has waited
+ * maxDelay milliseconds, whichever comes first. If the connection is lost the uncommitted messages are sent again on
+ * the re-established connection, so a message may be delivered more than once if a commit was in doubt.
+ *
+ * The batcher needs the connector to itself; other work on the same connection would be committed with each batch.
+ *
+ * <pre>
+ * OutputQueueBatcher batcher = new OutputQueueBatcher(new OutputQueue(connector, "ZTEST.QMGR1.QL"), 100, 50, -1);
+ * for (byte[] payload : payloads) {
+ * 	batcher.add(payload);
+ * }
+ * batcher.close();
+ * </pre>
+ *
+ */
+public class OutputQueueBatcher {
+
+	private final OutputQueue outputQueue;
+
+	private final int maxMessages;
+
+	private final long maxDelay;
+
+	private final int expiryTime;
+
+	// Messages put since the last commit; kept so they can be sent again if the connection is lost
+	private final List<byte[]> uncommitted = new ArrayList<byte[]>();
+
+	private long firstUncommittedAt = 0;
+
+	private MQException flushError = null;
+
+	private ScheduledExecutorService timer = null;
+
+	/**
+	 * Create a new batcher
+	 *
+	 * @param outputQueue
+	 *                    Queue to put to
+	 * @param maxMessages
+	 *                    Commit after this many messages
+	 * @param maxDelay
+	 *                    Commit once the oldest uncommitted message has waited this many milliseconds
+	 * @param expiryTime
+	 *                    Expiry time in 1/10ths second of each message
+	 */
+	public OutputQueueBatcher(OutputQueue outputQueue, int maxMessages, long maxDelay, int expiryTime) {
+		this.outputQueue = outputQueue;
+		this.maxMessages = maxMessages;
+		this.maxDelay = maxDelay;
+		this.expiryTime = expiryTime;
+
+		this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "OutputQueueBatcher-" + outputQueue.getQueueName().trim());
+			t.setDaemon(true);
+			return t;
+		});
+		long checkInterval = Math.max(1, maxDelay / 4);
+		this.timer.scheduleWithFixedDelay(this::flushIfDue, checkInterval, checkInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Add a message to the current unit of work, committing if the batch is full
+	 *
+	 * @param datagramMessage
+	 * @throws IOException
+	 * @throws MQException
+	 *                     The put or commit failed, or a timed commit failed since the last call
+	 */
+	public synchronized void add(byte[] datagramMessage) throws IOException, MQException {
+		this.throwFlushError();
+
+		if (this.uncommitted.isEmpty()) {
+			this.firstUncommittedAt = System.currentTimeMillis();
+		}
+		this.uncommitted.add(datagramMessage);
+
+		try {
+			this.outputQueue.sendDatagramMessageUnderSyncpoint(datagramMessage, this.expiryTime);
+		} catch (MQException e) {
+			this.recover(e);
+		}
+
+		if (this.uncommitted.size() >= this.maxMessages) {
+			this.flush();
+		}
+	}
+
+	/**
+	 * Commit the current unit of work
+	 *
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	public synchronized void flush() throws IOException, MQException {
+		if (this.uncommitted.isEmpty()) {
+			return;
+		}
+		try {
+			this.outputQueue.commit();
+		} catch (MQException e) {
+			this.recover(e);
+		}
+		this.uncommitted.clear();
+	}
+
+	/**
+	 * Commit any outstanding messages and stop the timer. The output queue is not closed.
+	 *
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	public void close() throws IOException, MQException {
+		this.timer.shutdownNow();
+		synchronized (this) {
+			this.throwFlushError();
+			this.flush();
+		}
+	}
+
+	/**
+	 * Return the number of messages put but not yet committed
+	 *
+	 * @return
+	 */
+	public synchronized int getUncommittedCount() {
+		return this.uncommitted.size();
+	}
+
+	/**
+	 * Called by the timer
+	 */
+	private synchronized void flushIfDue() {
+		if (this.uncommitted.isEmpty() || System.currentTimeMillis() - this.firstUncommittedAt < this.maxDelay) {
+			return;
+		}
+		try {
+			this.flush();
+		} catch (MQException e) {
+			// Reported on the next add()
+			this.flushError = e;
+		} catch (IOException e) {
+			// Cannot happen; the payloads were written before
+		}
+	}
+
+	/**
+	 * The unit of work has failed. If the connection was lost, send the uncommitted messages again as one batch;
+	 * otherwise back out and give up on them.
+	 *
+	 * @param e
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	private void recover(MQException e) throws IOException, MQException {
+		if (!Connector.isConnectionError(e.reasonCode)) {
+			try {
+				this.outputQueue.backout();
+			} catch (MQException e1) {
+				// Ignore any errors
+			}
+			this.uncommitted.clear();
+			throw e;
+		}
+
+		List<byte[]> resend = new ArrayList<byte[]>(this.uncommitted);
+		this.uncommitted.clear();
+		this.outputQueue.sendDatagramBatch(resend, this.expiryTime);
+	}
+
+	private void throwFlushError() throws MQException {
+		if (this.flushError != null) {
+			MQException e = this.flushError;
+			this.flushError = null;
+			throw e;
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+
+/**
+ * Encodes message payloads, for example by compressing them. Each codec has its own MQMD format, which marks messages
+ * it has encoded so that the receiver can find the codec to decode them with. See {@link PayloadCodecs}.
+ *
+ */
+public interface PayloadCodec {
+
+	/**
+	 * Return the 8 character MQMD format that marks messages encoded by this codec. Formats starting with MQ are
+	 * reserved by IBM.
+	 * 
+	 * @return
+	 */
+	public String getFormat();
+
+	/**
+	 * Encode a payload
+	 * 
+	 * @param payload
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] encode(byte[] payload) throws IOException;
+
+	/**
+	 * Decode a payload encoded by this codec
+	 * 
+	 * @param data
+	 * @param offset
+	 * @param length
+	 * @return
+	 * @throws IOException
+	 */
+	public byte[] decode(byte[] data, int offset, int length) throws IOException;
+}
@@ -0,0 +1,127 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.mq.MQMessage;
+
+/**
+ * Registry of payload codecs, and the methods to encode and decode messages with them. An encoded message carries the
+ * codec's format in its MQMD; its body holds the original 8 character format followed by the encoded payload, so the
+ * original format is restored on decoding without relying on message properties.
+ * 
+ * The Deflate codec is registered by default. Register other codecs at start up, in both the sender and the receiver.
+ *
+ */
+public class PayloadCodecs {
+
+	private static final int FORMAT_LENGTH = 8;
+
+	private static final ConcurrentHashMap<String, PayloadCodec> codecs = new ConcurrentHashMap<String, PayloadCodec>();
+
+	static {
+		register(new DeflatePayloadCodec());
+	}
+
+	/**
+	 * Register a codec, replacing any codec with the same format
+	 * 
+	 * @param codec
+	 */
+	public static void register(PayloadCodec codec) {
+		codecs.put(codec.getFormat(), codec);
+	}
+
+	/**
+	 * Return the codec for the passed MQMD format, or null if the format is not a codec format
+	 * 
+	 * @param format
+	 * @return
+	 */
+	public static PayloadCodec get(String format) {
+		return format == null ? null : codecs.get(format);
+	}
+
+	/**
+	 * Return true if the passed MQMD format marks an encoded message
+	 * 
+	 * @param format
+	 * @return
+	 */
+	public static boolean isEncoded(String format) {
+		return get(format) != null;
+	}
+
+	/**
+	 * Encode a payload, prefixing it with the original format
+	 * 
+	 * @param codec
+	 * @param originalFormat
+	 * @param payload
+	 * @return
+	 * @throws IOException
+	 */
+	public static byte[] encode(PayloadCodec codec, String originalFormat, byte[] payload) throws IOException {
+		byte[] encoded = codec.encode(payload);
+		byte[] result = new byte[FORMAT_LENGTH + encoded.length];
+		byte[] format = Arrays.copyOf(originalFormat.getBytes(StandardCharsets.US_ASCII), FORMAT_LENGTH);
+		for (int i = originalFormat.length(); i < FORMAT_LENGTH; i++) {
+			format[i] = ' ';
+		}
+		System.arraycopy(format, 0, result, 0, FORMAT_LENGTH);
+		System.arraycopy(encoded, 0, result, FORMAT_LENGTH, encoded.length);
+		return result;
+	}
+
+	/**
+	 * If the message is encoded, replace its body with the decoded payload and restore its original format. The message
+	 * is left positioned at the start of the payload. Messages that are not encoded are left unchanged.
+	 * 
+	 * @param msg
+	 * @return true if the message was decoded
+	 * @throws IOException
+	 */
+	public static boolean decode(MQMessage msg) throws IOException {
+		PayloadCodec codec = get(msg.format);
+		if (codec == null) {
+			return false;
+		}
+		msg.seek(0);
+		byte[] data = new byte[msg.getMessageLength()];
+		msg.readFully(data);
+		if (data.length < FORMAT_LENGTH) {
+			throw new IOException("Encoded message is too short");
+		}
+		byte[] payload = codec.decode(data, FORMAT_LENGTH, data.length - FORMAT_LENGTH);
+		msg.clearMessage();
+		msg.format = new String(data, 0, FORMAT_LENGTH, StandardCharsets.US_ASCII);
+		msg.write(payload);
+		msg.seek(0);
+		return true;
+	}
+}
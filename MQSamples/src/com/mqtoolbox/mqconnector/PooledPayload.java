@@ -0,0 +1,84 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A message payload held in a pooled buffer. Read the payload from {@link #getBuffer()}, then call {@link #close()} to
+ * return the buffer to its pool; the buffer must not be used after that.
+ *
+ * <pre>
+ * try (PooledPayload payload = Helper.extractMessagePayloadPooled(msg, pool)) {
+ * 	process(payload.getBuffer());
+ * }
+ * </pre>
+ *
+ */
+public class PooledPayload implements AutoCloseable {
+
+	private final ByteBufferPool pool;
+
+	private ByteBuffer pooledBuffer;
+
+	private final ByteBuffer view;
+
+	PooledPayload(ByteBufferPool pool, ByteBuffer pooledBuffer, ByteBuffer view) {
+		this.pool = pool;
+		this.pooledBuffer = pooledBuffer;
+		this.view = view;
+	}
+
+	/**
+	 * Return the payload; position 0 is the first byte and the limit is the payload length
+	 * 
+	 * @return
+	 */
+	public ByteBuffer getBuffer() {
+		if (this.pooledBuffer == null) {
+			throw new IllegalStateException("Payload already released");
+		}
+		return view;
+	}
+
+	/**
+	 * Return the payload length
+	 * 
+	 * @return
+	 */
+	public int getLength() {
+		return this.view.limit();
+	}
+
+	/**
+	 * Release the buffer back to its pool. Calling it again has no effect.
+	 */
+	@Override
+	public void close() {
+		if (this.pooledBuffer != null) {
+			this.pool.release(this.pooledBuffer);
+			this.pooledBuffer = null;
+		}
+	}
+}
@@ -0,0 +1,494 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.constants.MQConstants;
+
+/**
+ * Spread puts across the members of a queue manager group defined in a JSON CCDT (such as AMQCLCHL_QMGR_GROUP.JSON).
+ * The CCDT is read once and a connection is kept to every member. Each put is routed to the member with the lowest
+ * recent put latency multiplied by the number of puts it has in flight, so traffic moves away from a member that slows
+ * down. Members scoring within 10% of the best are treated as equal and chosen between using the CCDT clientWeight.
+ * A member whose connection fails is skipped and reconnected after the retry interval.
+ * 
+ * Each member has several connections, each with its own queue handles, so puts to one member run concurrently and
+ * the number in flight reflects the load on the queue manager rather than waiting for a single connection.
+ *
+ * <pre>
+ * QueueManagerGroupBalancer balancer = new QueueManagerGroupBalancer(new URL("file:AMQCLCHL_QMGR_GROUP.JSON"), "*QMGRGRP1",
+ * 		new Hashtable&lt;String, Object&gt;());
+ * balancer.sendDatagramMessage("ZTEST.QL", "hello".getBytes(), 600);
+ * </pre>
+ *
+ * The CCDT affinity attribute is not used; every put is routed independently.
+ *
+ */
+public class QueueManagerGroupBalancer {
+
+	// Weight given to the latest sample in the moving average
+	private static final double LATENCY_SMOOTHING = 0.2;
+
+	// Scores within this fraction of the best score are considered equal
+	private static final double TIE_MARGIN = 0.10;
+
+	// An idle member's average halves every this many nanoseconds, so it is tried again
+	private static final long LATENCY_HALF_LIFE = 1000000000L;
+
+	private final String groupName;
+
+	private final List<Member> members = new ArrayList<Member>();
+
+	private long retryInterval = 5000;
+
+	/**
+	 * Connect to every member of the queue manager group, with 4 connections to each
+	 *
+	 * @param clientChannelDefinitionTable
+	 *                                     URL of the JSON CCDT. Example, "file:AMQCLCHL_QMGR_GROUP.JSON"
+	 * @param groupName
+	 *                                     Queue manager group name, with or without the leading '*'
+	 * @param connectionProperties
+	 *                                     Extra connection properties for each member, for example the SSL socket
+	 *                                     factory and cipher suite. May be empty.
+	 * @throws IOException
+	 *                     The CCDT could not be read
+	 * @throws MQException
+	 *                     No member could be connected to
+	 */
+	public QueueManagerGroupBalancer(URL clientChannelDefinitionTable, String groupName, Hashtable<String, Object> connectionProperties)
+			throws IOException, MQException {
+		this(clientChannelDefinitionTable, groupName, connectionProperties, 4);
+	}
+
+	/**
+	 * Connect to every member of the queue manager group
+	 *
+	 * @param clientChannelDefinitionTable
+	 *                                     URL of the JSON CCDT. Example, "file:AMQCLCHL_QMGR_GROUP.JSON"
+	 * @param groupName
+	 *                                     Queue manager group name, with or without the leading '*'
+	 * @param connectionProperties
+	 *                                     Extra connection properties for each member, for example the SSL socket
+	 *                                     factory and cipher suite. May be empty.
+	 * @param connectionsPerMember
+	 *                                     Number of connections to each member, and so the number of puts that can be in
+	 *                                     flight to it at once
+	 * @throws IOException
+	 *                     The CCDT could not be read
+	 * @throws MQException
+	 *                     No member could be connected to
+	 */
+	public QueueManagerGroupBalancer(URL clientChannelDefinitionTable, String groupName, Hashtable<String, Object> connectionProperties,
+			int connectionsPerMember) throws IOException, MQException {
+		if (connectionsPerMember < 1) {
+			throw new IllegalArgumentException("connectionsPerMember must be at least 1");
+		}
+		this.groupName = groupName;
+		ClientChannelTable ccdt = new ClientChannelTable(clientChannelDefinitionTable);
+		List<ClientChannelTable.ChannelEntry> channels = ccdt.getChannels(groupName);
+		if (channels.isEmpty()) {
+			throw new IOException("Queue manager group " + groupName + " not found in " + clientChannelDefinitionTable);
+		}
+
+		MQException lastError = null;
+		for (ClientChannelTable.ChannelEntry channel : channels) {
+			Member member = new Member(channel, connectionProperties, connectionsPerMember);
+			try {
+				member.connect();
+			} catch (MQException e) {
+				lastError = e;
+				member.markDown(this.retryInterval);
+			}
+			this.members.add(member);
+		}
+
+		if (lastError != null && this.availableMembers().isEmpty()) {
+			this.close();
+			throw lastError;
+		}
+	}
+
+	/**
+	 * Put a datagram message to the queue on the best member
+	 *
+	 * @param queueName
+	 *                        Queue to put to; it must be defined on every member
+	 * @param datagramMessage
+	 *                        Message to send
+	 * @param expiryTime
+	 *                        Expiry time in 1/10ths second
+	 * @throws IOException
+	 * @throws MQException
+	 *                     The put failed on every available member
+	 */
+	public void sendDatagramMessage(String queueName, byte[] datagramMessage, int expiryTime) throws IOException, MQException {
+		List<Member> tried = new ArrayList<Member>(this.members.size());
+		MQException lastError = null;
+
+		while (true) {
+			Member member = this.selectMember(tried);
+			if (member == null) {
+				if (lastError != null) {
+					throw lastError;
+				}
+				throw new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_Q_MGR_NOT_AVAILABLE, this);
+			}
+			tried.add(member);
+
+			try {
+				member.put(queueName, datagramMessage, expiryTime);
+				return;
+			} catch (MQException e) {
+				if (!Connector.isConnectionError(e.reasonCode)) {
+					throw e;
+				}
+				// Try the next best member
+				member.markDown(this.retryInterval);
+				lastError = e;
+			}
+		}
+	}
+
+	/**
+	 * Choose the member with the lowest score, breaking ties by client weight
+	 *
+	 * @param exclude
+	 *                Members already tried for this put
+	 * @return The member, or null if none is available
+	 */
+	private Member selectMember(List<Member> exclude) {
+		long now = System.nanoTime();
+		List<Member> candidates = new ArrayList<Member>(this.members.size());
+		List<Double> scores = new ArrayList<Double>(this.members.size());
+		double best = Double.MAX_VALUE;
+
+		for (Member member : this.members) {
+			if (exclude.contains(member) || !member.isAvailable()) {
+				continue;
+			}
+			double score = member.score(now);
+			candidates.add(member);
+			scores.add(score);
+			best = Math.min(best, score);
+		}
+		if (candidates.isEmpty()) {
+			return null;
+		}
+
+		// Weighted random choice among the members tied for best
+		List<Member> tied = new ArrayList<Member>(candidates.size());
+		int totalWeight = 0;
+		for (int i = 0; i < candidates.size(); i++) {
+			if (scores.get(i) <= best * (1 + TIE_MARGIN)) {
+				tied.add(candidates.get(i));
+				totalWeight += candidates.get(i).weight;
+			}
+		}
+		int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+		for (Member member : tied) {
+			pick -= member.weight;
+			if (pick < 0) {
+				return member;
+			}
+		}
+		return tied.get(tied.size() - 1);
+	}
+
+	/**
+	 * Return the members that are currently connected or due a reconnect attempt
+	 *
+	 * @return
+	 */
+	private List<Member> availableMembers() {
+		List<Member> available = new ArrayList<Member>();
+		for (Member member : this.members) {
+			if (member.isAvailable()) {
+				available.add(member);
+			}
+		}
+		return available;
+	}
+
+	/**
+	 * Set how long (milliseconds) a failed member is skipped before it is reconnected. Defaults to 5 seconds.
+	 *
+	 * @param retryInterval
+	 */
+	public void setRetryInterval(long retryInterval) {
+		this.retryInterval = retryInterval;
+	}
+
+	/**
+	 * Return the group members
+	 *
+	 * @return
+	 */
+	public List<Member> getMembers() {
+		return Collections.unmodifiableList(members);
+	}
+
+	public String getGroupName() {
+		return groupName;
+	}
+
+	/**
+	 * Close all queues and disconnect from every member
+	 */
+	public void close() {
+		for (Member member : this.members) {
+			member.close();
+		}
+	}
+
+	/**
+	 * One queue manager in the group
+	 *
+	 */
+	public static final class Member {
+		private final ClientChannelTable.ChannelEntry channel;
+
+		private final Hashtable<String, Object> connectionProperties;
+
+		private final int weight;
+
+		private final Lane[] lanes;
+
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		// Moving average put latency in nanoseconds and when it was last updated
+		private volatile double averageLatency = 0;
+
+		private volatile long lastSample = 0;
+
+		private volatile long downUntil = 0;
+
+		// Incremented each time the member is marked down; a lane whose epoch differs reconnects before its next put
+		private volatile int downEpoch = 0;
+
+		Member(ClientChannelTable.ChannelEntry channel, Hashtable<String, Object> connectionProperties, int connections) {
+			this.channel = channel;
+			this.weight = Math.max(1, channel.getClientWeight());
+			this.connectionProperties = ClientConnector.createConnectionProperties(channel.getChannelName(), channel.getHostName(),
+					channel.getPort(), null, null);
+			this.connectionProperties.putAll(connectionProperties);
+			this.lanes = new Lane[connections];
+			for (int i = 0; i < connections; i++) {
+				this.lanes[i] = new Lane();
+			}
+		}
+
+		/**
+		 * Connect each of this member's connections directly to its channel. The queue manager name is left blank as the
+		 * CCDT only holds the group name.
+		 *
+		 * @throws MQException
+		 */
+		private void connect() throws MQException {
+			for (Lane lane : this.lanes) {
+				lane.lock.lock();
+				try {
+					lane.connector = new ClientConnector("", this.connectionProperties);
+					lane.epoch = this.downEpoch;
+				} finally {
+					lane.lock.unlock();
+				}
+			}
+			this.downUntil = 0;
+		}
+
+		/**
+		 * Put the message on a free connection, recording the latency
+		 *
+		 * @param queueName
+		 * @param datagramMessage
+		 * @param expiryTime
+		 * @throws IOException
+		 * @throws MQException
+		 */
+		private void put(String queueName, byte[] datagramMessage, int expiryTime) throws IOException, MQException {
+			Lane lane = this.acquire();
+			this.inFlight.incrementAndGet();
+			try {
+				int epoch = this.downEpoch;
+				if (lane.epoch != epoch || lane.connector == null) {
+					// Due a reconnect attempt
+					lane.closeQueues();
+					if (lane.connector == null) {
+						lane.connector = new ClientConnector("", this.connectionProperties);
+					} else {
+						lane.connector.recover(lane.connector.getConnectionGeneration());
+					}
+					lane.epoch = epoch;
+					this.downUntil = 0;
+				}
+
+				OutputQueue queue = lane.queues.get(queueName);
+				if (queue == null) {
+					queue = new OutputQueue(lane.connector, queueName);
+					queue.setPutRetry(0, 0, 0); // fail over to another member rather than wait
+					lane.queues.put(queueName, queue);
+				}
+
+				long start = System.nanoTime();
+				queue.sendDatagramMessage(datagramMessage, expiryTime);
+				this.recordLatency(System.nanoTime() - start);
+			} finally {
+				this.inFlight.decrementAndGet();
+				lane.lock.unlock();
+			}
+		}
+
+		/**
+		 * Lock and return a connection. The thread's own connection is tried first, then any other free one; if all are
+		 * busy the thread waits for its own.
+		 *
+		 * @return
+		 */
+		private Lane acquire() {
+			int home = (int) (Thread.currentThread().getId() % this.lanes.length);
+			for (int i = 0; i < this.lanes.length; i++) {
+				Lane lane = this.lanes[(home + i) % this.lanes.length];
+				if (lane.lock.tryLock()) {
+					return lane;
+				}
+			}
+			Lane lane = this.lanes[home];
+			lane.lock.lock();
+			return lane;
+		}
+
+		private synchronized void recordLatency(long latency) {
+			double average = this.averageLatency;
+			this.averageLatency = average == 0 ? latency : average + LATENCY_SMOOTHING * (latency - average);
+			this.lastSample = System.nanoTime();
+		}
+
+		/**
+		 * Lower is better. The average latency decays while the member is not used so that it is eventually tried again.
+		 *
+		 * @param now
+		 * @return
+		 */
+		private double score(long now) {
+			double latency = this.averageLatency;
+			if (latency > 0) {
+				latency *= Math.pow(0.5, (double) (now - this.lastSample) / LATENCY_HALF_LIFE);
+			}
+			return (latency + 1) * (this.inFlight.get() + 1);
+		}
+
+		private synchronized void markDown(long retryInterval) {
+			this.downUntil = System.currentTimeMillis() + retryInterval;
+			this.downEpoch++;
+		}
+
+		private boolean isAvailable() {
+			if (this.downUntil != 0) {
+				return System.currentTimeMillis() >= this.downUntil;
+			}
+			for (Lane lane : this.lanes) {
+				if (lane.connector != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private void close() {
+			for (Lane lane : this.lanes) {
+				lane.lock.lock();
+				try {
+					lane.closeQueues();
+					if (lane.connector != null) {
+						try {
+							lane.connector.disconnect();
+						} catch (MQException e) {
+							// Ignore any errors
+						}
+						lane.connector = null;
+					}
+				} finally {
+					lane.lock.unlock();
+				}
+			}
+		}
+
+		public ClientChannelTable.ChannelEntry getChannel() {
+			return channel;
+		}
+
+		/**
+		 * Return the moving average put latency in microseconds
+		 *
+		 * @return
+		 */
+		public long getAverageLatency() {
+			return (long) (averageLatency / 1000);
+		}
+
+		public int getInFlight() {
+			return inFlight.get();
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%s avg %,d us, in flight %d, weight %d%s", channel, getAverageLatency(), getInFlight(), weight,
+					downUntil != 0 ? " (down)" : "");
+		}
+	}
+
+	/**
+	 * One connection to a member and its open queues. Only used while its lock is held.
+	 */
+	private static final class Lane {
+		private final ReentrantLock lock = new ReentrantLock();
+
+		// Read without the lock to check whether the member is available
+		private volatile Connector connector = null;
+
+		private final Map<String, OutputQueue> queues = new HashMap<String, OutputQueue>();
+
+		private int epoch = 0;
+
+		private void closeQueues() {
+			for (OutputQueue queue : this.queues.values()) {
+				queue.close();
+			}
+			this.queues.clear();
+		}
+	}
+}
@@ -0,0 +1,452 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.constants.MQConstants;
+
+/**
+ * Request/reply with many requests in flight over one request queue and one reply queue. Where
+ * {@link SendRequestGetReply} blocks the caller on a get matching its own correlation id, this class sends each
+ * request with a message id it generates, records a future under that id, and returns. One reader thread gets every
+ * message from the reply queue and completes the future whose id matches the reply's correlation id.
+ * 
+ * Requests are put on one connection and replies got on another, so a reader waiting for a reply does not hold up
+ * the puts. The reply queue should be used only by this object; a reply that matches no pending request is counted
+ * and discarded.
+ * 
+ * Reply deadlines are kept on a {@link HashedWheelTimer} rather than in a waiting get per request. A request that
+ * times out has its future completed with a {@link TimeoutException}, and its id is remembered for
+ * {@link #setLateReplyRetention(long) a while} so that a reply arriving after the deadline is counted as late and
+ * passed to the {@link LateReplyHandler}, if one is set. The timeout is completed on the timer thread, so dependent
+ * actions that may block should use the async variants of the {@link CompletableFuture} methods.
+ * 
+ * <pre>
+ * ReplyDemultiplexer demux = new ReplyDemultiplexer(requestConnector, replyConnector, "ZTEST.REQUEST.QL", "ZTEST.REPLY.QL");
+ * demux.start();
+ * demux.sendRequest(payload, 300, 5000).thenAccept(reply -&gt; System.out.println(Helper.extractMessagePayload(reply)));
+ * </pre>
+ *
+ */
+public class ReplyDemultiplexer {
+
+	private final Connector replyConnector;
+
+	private final String replyQueueName;
+
+	private final OutputQueue outputQueue;
+
+	private InputQueueGet inputQueue;
+
+	private final Map<CorrelationKey, CompletableFuture<MQMessage>> pending = new ConcurrentHashMap<CorrelationKey, CompletableFuture<MQMessage>>();
+
+	// Message ids are a random prefix for this object followed by a counter
+	private final byte[] idPrefix = new byte[16];
+
+	private final AtomicLong idCounter = new AtomicLong();
+
+	private final AtomicLong unmatchedReplies = new AtomicLong();
+
+	// Requests that timed out, kept to recognise late replies
+	private final Map<CorrelationKey, Boolean> timedOut = new ConcurrentHashMap<CorrelationKey, Boolean>();
+
+	private final AtomicLong timedOutRequests = new AtomicLong();
+
+	private final AtomicLong lateReplies = new AtomicLong();
+
+	private final HashedWheelTimer timer;
+
+	private volatile long lateReplyRetention = 60000;
+
+	private volatile LateReplyHandler lateReplyHandler = null;
+
+	private volatile boolean running = false;
+
+	private Thread reader = null;
+
+	private volatile Throwable lastError = null;
+
+	/**
+	 * Open the request and reply queues. Call {@link #start()} before sending requests.
+	 * 
+	 * @param requestConnector Connection used to put requests
+	 * @param replyConnector   Connection used to get replies; must not be the request connection
+	 * @param requestQueueName Queue requests are sent to
+	 * @param replyQueueName   Queue replies are returned to
+	 * @throws MQException
+	 */
+	public ReplyDemultiplexer(Connector requestConnector, Connector replyConnector, String requestQueueName, String replyQueueName)
+			throws MQException, Exception {
+		this.replyConnector = replyConnector;
+		this.replyQueueName = replyQueueName;
+		new SecureRandom().nextBytes(this.idPrefix);
+		this.inputQueue = new InputQueueGet(replyConnector, replyQueueName);
+		try {
+			this.outputQueue = new OutputQueue(requestConnector, requestQueueName);
+		} catch (MQException e) {
+			this.inputQueue.close();
+			throw e;
+		}
+		this.timer = new HashedWheelTimer("ReplyTimeouts-" + replyQueueName.trim(), 10, TimeUnit.MILLISECONDS, 1024);
+	}
+
+	/**
+	 * Start the reply reader thread
+	 */
+	public synchronized void start() {
+		if (this.running) {
+			return;
+		}
+		this.running = true;
+		this.reader = new Thread(this::readReplies, "ReplyDemultiplexer-" + this.replyQueueName.trim());
+		this.reader.setDaemon(true);
+		this.reader.start();
+	}
+
+	/**
+	 * Send a request and return a future completed with the reply. The future is completed exceptionally if the request
+	 * cannot be sent or the demultiplexer is closed first. Cancelling the future stops waiting for the reply.
+	 * 
+	 * @param requestMessage The request payload
+	 * @param expiryTime     Expiry time in 1/10ths second for the request message
+	 * @return
+	 */
+	public CompletableFuture<MQMessage> sendRequest(byte[] requestMessage, int expiryTime) {
+		return this.sendRequest(requestMessage, expiryTime, 0);
+	}
+
+	/**
+	 * Send a request and return a future completed with the reply, or with a {@link TimeoutException} if no reply arrives
+	 * within the timeout
+	 * 
+	 * @param requestMessage The request payload
+	 * @param expiryTime     Expiry time in 1/10ths second for the request message
+	 * @param timeout        Wait for the reply in milliseconds; 0 waits until the demultiplexer is closed
+	 * @return
+	 */
+	public CompletableFuture<MQMessage> sendRequest(byte[] requestMessage, int expiryTime, long timeout) {
+		return this.send(requestMessage, expiryTime, timeout > 0 ? timeout : -1);
+	}
+
+	/**
+	 * Send a request and register its future
+	 * 
+	 * @param requestMessage The request payload
+	 * @param expiryTime     Expiry time in 1/10ths second for the request message
+	 * @param timeout        Milliseconds until the request times out, 0 for the next timer tick, or less than 0 for
+	 *                       no timeout
+	 * @return
+	 */
+	private CompletableFuture<MQMessage> send(byte[] requestMessage, int expiryTime, long timeout) {
+		CompletableFuture<MQMessage> future = new CompletableFuture<MQMessage>();
+		if (!this.running) {
+			future.completeExceptionally(new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_CONNECTION_STOPPED, this));
+			return future;
+		}
+
+		// Register before the put, as the reply may arrive before the put returns
+		byte[] messageId = this.nextMessageId();
+		CorrelationKey key = new CorrelationKey(messageId);
+		this.pending.put(key, future);
+		HashedWheelTimer.Timeout deadline = timeout >= 0 ? this.timer.schedule(() -> this.timeOut(key, future, timeout), timeout, TimeUnit.MILLISECONDS) : null;
+		future.whenComplete((reply, error) -> {
+			this.pending.remove(key, future);
+			if (deadline != null) {
+				deadline.cancel();
+			}
+		});
+
+		try {
+			MQMessage msg = new MQMessage();
+			msg.messageType = MQConstants.MQMT_REQUEST;
+			msg.format = MQConstants.MQFMT_STRING;
+			msg.replyToQueueName = this.replyQueueName;
+			msg.expiry = expiryTime;
+			msg.messageId = messageId;
+			msg.correlationId = MQConstants.MQCI_NONE;
+			msg.write(requestMessage);
+			synchronized (this.outputQueue) {
+				this.outputQueue.sendRequestMessage(msg, this.replyQueueName, expiryTime);
+			}
+		} catch (Exception e) {
+			future.completeExceptionally(e);
+		}
+		return future;
+	}
+
+	/**
+	 * Send a request and wait for its reply
+	 * 
+	 * @param requestMessage The request payload
+	 * @param expiryTime     Expiry time in 1/10ths second for the request message
+	 * @param waitInterval   Wait for the reply in milliseconds; 0 or less returns without waiting
+	 * @return The reply, or null if none arrived in time
+	 * @throws Exception
+	 */
+	public MQMessage sendRequestWaitReply(byte[] requestMessage, int expiryTime, int waitInterval) throws Exception {
+		CompletableFuture<MQMessage> future;
+		if (waitInterval <= 0) {
+			// Do not wait; the request times out on the next tick, so its reply is still recognised as late
+			future = this.send(requestMessage, expiryTime, 0);
+			if (!future.isDone()) {
+				return null;
+			}
+		} else {
+			future = this.send(requestMessage, expiryTime, waitInterval);
+		}
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof TimeoutException) {
+				return null;
+			}
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+		}
+	}
+
+	/**
+	 * Timer task. Fails the request if it is still waiting and remembers its id to recognise a late reply.
+	 * 
+	 * @param key
+	 * @param future
+	 * @param timeout
+	 */
+	private void timeOut(CorrelationKey key, CompletableFuture<MQMessage> future, long timeout) {
+		// Remember the id first, so a reply arriving now is seen as late rather than unmatched
+		this.timedOut.put(key, Boolean.TRUE);
+		if (!this.pending.remove(key, future)) {
+			this.timedOut.remove(key);
+			return;
+		}
+		this.timedOutRequests.incrementAndGet();
+		try {
+			this.timer.schedule(() -> this.timedOut.remove(key), this.lateReplyRetention, TimeUnit.MILLISECONDS);
+		} catch (IllegalStateException e) {
+			// Closing
+		}
+		future.completeExceptionally(new TimeoutException("No reply within " + timeout + "ms"));
+	}
+
+	/**
+	 * Return a new message id, unique to this object
+	 * 
+	 * @return
+	 */
+	private byte[] nextMessageId() {
+		return ByteBuffer.allocate(MQConstants.MQ_MSG_ID_LENGTH).put(this.idPrefix).putLong(this.idCounter.incrementAndGet()).array();
+	}
+
+	/**
+	 * Reader thread. Gets each reply and completes the matching future.
+	 */
+	private void readReplies() {
+		long generation = this.replyConnector.getConnectionGeneration();
+		while (this.running) {
+			try {
+				MQMessage reply = this.inputQueue.getNextWithConvert(true, 1000, null);
+				if (reply == null) {
+					continue;
+				}
+				CompletableFuture<MQMessage> future = this.pending.remove(new CorrelationKey(reply.correlationId));
+				if (future == null) {
+					this.unmatchedReply(reply);
+				} else {
+					future.complete(reply);
+				}
+			} catch (MQException e) {
+				this.lastError = e;
+				if (!this.running) {
+					break;
+				}
+				if (Connector.isConnectionError(e.reasonCode)) {
+					try {
+						this.replyConnector.recover(generation);
+						generation = this.replyConnector.getConnectionGeneration();
+						this.inputQueue = new InputQueueGet(this.replyConnector, this.replyQueueName);
+					} catch (Exception e1) {
+						this.lastError = e1;
+						this.pause();
+					}
+				} else {
+					this.pause();
+				}
+			} catch (Exception e) {
+				this.lastError = e;
+				this.pause();
+			}
+		}
+	}
+
+	/**
+	 * Count a reply that matched no pending request, and pass it to the late reply handler if its request timed out
+	 * 
+	 * @param reply
+	 */
+	private void unmatchedReply(MQMessage reply) {
+		if (this.timedOut.remove(new CorrelationKey(reply.correlationId)) == null) {
+			this.unmatchedReplies.incrementAndGet();
+			return;
+		}
+		this.lateReplies.incrementAndGet();
+		LateReplyHandler handler = this.lateReplyHandler;
+		if (handler != null) {
+			try {
+				handler.onLateReply(reply);
+			} catch (RuntimeException e) {
+				this.lastError = e;
+			}
+		}
+	}
+
+	private void pause() {
+		try {
+			Thread.sleep(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Stop the reader, fail the requests still waiting and close the queues
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			this.running = false;
+			if (this.reader != null) {
+				this.reader.join();
+				this.reader = null;
+			}
+		}
+		this.timer.stop();
+		MQException closed = new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_CONNECTION_STOPPED, this);
+		for (CompletableFuture<MQMessage> future : this.pending.values()) {
+			future.completeExceptionally(closed);
+		}
+		this.inputQueue.close();
+		synchronized (this.outputQueue) {
+			this.outputQueue.close();
+		}
+	}
+
+	/**
+	 * Return the number of requests waiting for a reply
+	 * 
+	 * @return
+	 */
+	public int getPendingCount() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Return the number of replies that matched no pending request
+	 * 
+	 * @return
+	 */
+	public long getUnmatchedReplyCount() {
+		return this.unmatchedReplies.get();
+	}
+
+	/**
+	 * Return the number of requests that timed out waiting for a reply
+	 * 
+	 * @return
+	 */
+	public long getTimedOutCount() {
+		return this.timedOutRequests.get();
+	}
+
+	/**
+	 * Return the number of replies that arrived after their request timed out
+	 * 
+	 * @return
+	 */
+	public long getLateReplyCount() {
+		return this.lateReplies.get();
+	}
+
+	/**
+	 * Pass replies that arrive after their request timed out to this handler. Set to null to discard them.
+	 * 
+	 * @param lateReplyHandler
+	 */
+	public void setLateReplyHandler(LateReplyHandler lateReplyHandler) {
+		this.lateReplyHandler = lateReplyHandler;
+	}
+
+	/**
+	 * Set how long the id of a timed out request is kept to recognise a late reply. Replies after this are counted as
+	 * unmatched.
+	 * 
+	 * @param lateReplyRetention Milliseconds
+	 */
+	public void setLateReplyRetention(long lateReplyRetention) {
+		this.lateReplyRetention = lateReplyRetention;
+	}
+
+	/**
+	 * Return the last error from the reply reader, or null
+	 * 
+	 * @return
+	 */
+	public Throwable getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * A 24 byte correlation id as a map key
+	 */
+	private static final class CorrelationKey {
+		private final byte[] id;
+		private final int hash;
+
+		CorrelationKey(byte[] id) {
+			this.id = id;
+			this.hash = Arrays.hashCode(id);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			return obj instanceof CorrelationKey && Arrays.equals(this.id, ((CorrelationKey) obj).id);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+	}
+}
@@ -0,0 +1,491 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.constants.MQConstants;
+
+/**
+ * Producer front end that takes MQ network I/O off the application threads. Application threads publish datagram
+ * payloads into a bounded ring buffer and return at once; dedicated I/O threads drain the buffer and put the messages
+ * in units of work of up to batchSize messages.
+ *
+ * The producer has one or more lanes. Each lane has a pre-allocated lock-free ring buffer, its own I/O thread, its own
+ * connection and its own {@link OutputQueue}. A publishing thread always uses the same lane, chosen by its thread id,
+ * so messages from one thread are put in the order they were published.
+ *
+ * <pre>
+ * RingBufferProducer producer = new RingBufferProducer(() -&gt; new BindConnector("QMGR1"), "ZTEST.QMGR1.QL", 2, 8192);
+ * producer.setBackpressurePolicy(BackpressurePolicy.BLOCK);
+ * producer.start();
+ * producer.publish(payload);
+ * producer.close(5000);
+ * </pre>
+ *
+ * A message is only on the queue once its unit of work is committed. Messages still in the ring buffer when the process
+ * ends are lost. A batch that fails after the output queue's own retries is discarded and counted in
+ * {@link #getFailedCount()}.
+ *
+ * Latency is recorded for each stage: publish (time the application thread spends in {@link #publish(byte[])},
+ * including any wait for room), queue wait (publish until an I/O thread takes the message), put (duration of each
+ * unit of work) and end to end (publish until commit).
+ *
+ */
+public class RingBufferProducer {
+
+	private final Lane[] lanes;
+
+	private final int capacity;
+
+	private final int mask;
+
+	private int batchSize = 100;
+
+	private int expiryTime = MQConstants.MQEI_UNLIMITED;
+
+	private WaitStrategy waitStrategy = WaitStrategy.SLEEPING;
+
+	private BackpressurePolicy backpressurePolicy = BackpressurePolicy.BLOCK;
+
+	private volatile boolean started = false;
+
+	private volatile boolean closed = false;
+
+	private final LongAdder published = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	private final LongAdder sent = new LongAdder();
+
+	private final LongAdder failed = new LongAdder();
+
+	private volatile Exception lastError = null;
+
+	private final LatencyStats publishLatency = new LatencyStats();
+
+	private final LatencyStats queueWaitLatency = new LatencyStats();
+
+	private final LatencyStats putLatency = new LatencyStats();
+
+	private final LatencyStats endToEndLatency = new LatencyStats();
+
+	/**
+	 * Create a new producer. Each lane is connected and its queue opened; call {@link #start()} to start the I/O
+	 * threads.
+	 * 
+	 * @param connectorFactory Creates a connector for each lane
+	 * @param queueName        Queue to send to
+	 * @param laneCount        Number of lanes, each with its own I/O thread and connection
+	 * @param capacity         Ring buffer slots per lane; rounded up to a power of two
+	 * @throws MQException
+	 */
+	public RingBufferProducer(ConnectorFactory connectorFactory, String queueName, int laneCount, int capacity) throws MQException {
+		if (laneCount < 1 || capacity < 1) {
+			throw new IllegalArgumentException("laneCount and capacity must be at least 1");
+		}
+		int size = Integer.highestOneBit(capacity);
+		this.capacity = size < capacity ? size << 1 : size;
+		this.mask = this.capacity - 1;
+		this.lanes = new Lane[laneCount];
+		try {
+			for (int i = 0; i < laneCount; i++) {
+				Connector connector = connectorFactory.create();
+				try {
+					this.lanes[i] = new Lane(i, connector, new OutputQueue(connector, queueName));
+				} catch (MQException e) {
+					disconnectQuietly(connector);
+					throw e;
+				}
+			}
+		} catch (MQException e) {
+			for (Lane lane : this.lanes) {
+				if (lane != null) {
+					lane.outputQueue.close();
+					disconnectQuietly(lane.connector);
+				}
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Start the I/O threads
+	 */
+	public synchronized void start() {
+		if (this.started) {
+			return;
+		}
+		this.started = true;
+		for (Lane lane : this.lanes) {
+			lane.thread.start();
+		}
+	}
+
+	/**
+	 * Publish a datagram payload. The payload array is put as it is, so it must not be changed after it is published.
+	 * 
+	 * @param payload
+	 * @return true if the message was accepted, false if it was dropped because the ring buffer was full
+	 * @throws MQException Reason MQRC_Q_FULL if the ring buffer is full and the policy is FAIL, or
+	 *                     MQRC_CONNECTION_STOPPED if the producer is closed
+	 */
+	public boolean publish(byte[] payload) throws MQException {
+		long start = System.nanoTime();
+		Lane lane = this.lanes[(int) (Thread.currentThread().getId() % this.lanes.length)];
+
+		// Let close() know a publish is in progress, so it does not stop the lane before the message is in the buffer
+		lane.publishers.incrementAndGet();
+		try {
+			long sequence;
+			int attempts = 0;
+			for (;;) {
+				if (this.closed) {
+					throw new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_CONNECTION_STOPPED, this);
+				}
+				long current = lane.claimed.get();
+				long next = current + 1;
+				if (next - lane.consumed.get() > this.capacity) {
+					// Full
+					if (this.backpressurePolicy == BackpressurePolicy.DROP) {
+						this.dropped.increment();
+						return false;
+					}
+					if (this.backpressurePolicy == BackpressurePolicy.FAIL) {
+						throw new MQException(MQConstants.MQCC_FAILED, MQConstants.MQRC_Q_FULL, this);
+					}
+					backoff(attempts++);
+					continue;
+				}
+				if (lane.claimed.compareAndSet(current, next)) {
+					sequence = next;
+					break;
+				}
+			}
+
+			int index = (int) (sequence & this.mask);
+			lane.payloads[index] = payload;
+			lane.publishTimes[index] = start;
+			// Volatile write, so the payload is visible to the I/O thread and the waiting flag below is read after it
+			lane.sequences.set(index, sequence);
+			if (lane.waiting) {
+				LockSupport.unpark(lane.thread);
+			}
+		} finally {
+			lane.publishers.decrementAndGet();
+		}
+
+		this.published.increment();
+		this.publishLatency.record(System.nanoTime() - start);
+		return true;
+	}
+
+	/**
+	 * Stop accepting messages, wait for the I/O threads to put the messages already published, then close the queues
+	 * and disconnect
+	 * 
+	 * @param timeout Maximum wait in milliseconds for the I/O threads to finish
+	 * @return true if all published messages were processed within the timeout
+	 * @throws InterruptedException
+	 */
+	public boolean close(long timeout) throws InterruptedException {
+		this.closed = true;
+		long deadline = System.currentTimeMillis() + timeout;
+		boolean drained = true;
+		for (Lane lane : this.lanes) {
+			while (lane.publishers.get() > 0) {
+				Thread.yield();
+			}
+			lane.stopping = true;
+			LockSupport.unpark(lane.thread);
+		}
+		for (Lane lane : this.lanes) {
+			if (this.started) {
+				lane.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+				if (lane.thread.isAlive()) {
+					// Leave the connection to the I/O thread, which is still using it
+					drained = false;
+					continue;
+				}
+			}
+			lane.outputQueue.close();
+			disconnectQuietly(lane.connector);
+		}
+		return drained && (this.started || this.published.sum() == 0);
+	}
+
+	/**
+	 * Wait for room in a full ring buffer
+	 * 
+	 * @param attempts
+	 */
+	private static void backoff(int attempts) {
+		if (attempts < 100) {
+			// Spin
+		} else if (attempts < 200) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(100000);
+		}
+	}
+
+	private static void disconnectQuietly(Connector connector) {
+		try {
+			connector.disconnect();
+		} catch (MQException e) {
+			// Ignore any errors
+		}
+	}
+
+	/**
+	 * Set the maximum number of messages put in one unit of work. Set before {@link #start()}.
+	 * 
+	 * @param batchSize
+	 */
+	public void setBatchSize(int batchSize) {
+		this.checkNotStarted();
+		this.batchSize = batchSize;
+	}
+
+	/**
+	 * Set the expiry time in 1/10ths second of each message. Set before {@link #start()}.
+	 * 
+	 * @param expiryTime
+	 */
+	public void setExpiryTime(int expiryTime) {
+		this.checkNotStarted();
+		this.expiryTime = expiryTime;
+	}
+
+	/**
+	 * Set how the I/O threads wait for messages. Set before {@link #start()}.
+	 * 
+	 * @param waitStrategy
+	 */
+	public void setWaitStrategy(WaitStrategy waitStrategy) {
+		this.checkNotStarted();
+		this.waitStrategy = waitStrategy;
+	}
+
+	/**
+	 * Set what publish does when the ring buffer is full. Set before {@link #start()}.
+	 * 
+	 * @param backpressurePolicy
+	 */
+	public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+		this.checkNotStarted();
+		this.backpressurePolicy = backpressurePolicy;
+	}
+
+	private void checkNotStarted() {
+		if (this.started) {
+			throw new IllegalStateException("The producer has been started");
+		}
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getPublishedCount() {
+		return this.published.sum();
+	}
+
+	public long getDroppedCount() {
+		return this.dropped.sum();
+	}
+
+	public long getSentCount() {
+		return this.sent.sum();
+	}
+
+	public long getFailedCount() {
+		return this.failed.sum();
+	}
+
+	/**
+	 * Return the number of messages published but not yet taken by an I/O thread
+	 * 
+	 * @return
+	 */
+	public long getBacklog() {
+		long backlog = 0;
+		for (Lane lane : this.lanes) {
+			backlog += lane.claimed.get() - lane.consumed.get();
+		}
+		return backlog;
+	}
+
+	/**
+	 * Return the error from the last batch that could not be put, or null
+	 * 
+	 * @return
+	 */
+	public Exception getLastError() {
+		return lastError;
+	}
+
+	public LatencyStats getPublishLatency() {
+		return publishLatency;
+	}
+
+	public LatencyStats getQueueWaitLatency() {
+		return queueWaitLatency;
+	}
+
+	public LatencyStats getPutLatency() {
+		return putLatency;
+	}
+
+	public LatencyStats getEndToEndLatency() {
+		return endToEndLatency;
+	}
+
+	/**
+	 * One ring buffer with the I/O thread that drains it. Producers claim a sequence number, fill the slot and then set
+	 * the slot's sequence to publish it. The I/O thread takes slots in sequence order once they are published, then
+	 * advances the consumed sequence to free them.
+	 */
+	private final class Lane implements Runnable {
+		private final Connector connector;
+		private final OutputQueue outputQueue;
+		private final Thread thread;
+		private final byte[][] payloads = new byte[capacity][];
+		private final long[] publishTimes = new long[capacity];
+		// Sequence number published in each slot
+		private final AtomicLongArray sequences = new AtomicLongArray(capacity);
+		// Last sequence claimed by a producer
+		private final AtomicLong claimed = new AtomicLong(-1);
+		// Last sequence taken by the I/O thread
+		private final AtomicLong consumed = new AtomicLong(-1);
+		private final AtomicInteger publishers = new AtomicInteger();
+		private volatile boolean waiting = false;
+		private volatile boolean stopping = false;
+
+		Lane(int number, Connector connector, OutputQueue outputQueue) {
+			this.connector = connector;
+			this.outputQueue = outputQueue;
+			for (int i = 0; i < capacity; i++) {
+				this.sequences.set(i, -1);
+			}
+			this.thread = new Thread(this, "RingBufferProducer-" + number);
+			this.thread.setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			List<byte[]> batch = new ArrayList<byte[]>(batchSize);
+			long[] batchPublishTimes = new long[batchSize];
+			long next = 0;
+			int idle = 0;
+
+			for (;;) {
+				// Take every published message in sequence, up to the batch size
+				while (batch.size() < batchSize) {
+					int index = (int) (next & mask);
+					if (this.sequences.get(index) != next) {
+						break;
+					}
+					batchPublishTimes[batch.size()] = this.publishTimes[index];
+					batch.add(this.payloads[index]);
+					this.payloads[index] = null;
+					next++;
+				}
+
+				if (batch.isEmpty()) {
+					if (this.stopping && this.claimed.get() < next) {
+						return;
+					}
+					this.idle(next, idle++);
+					continue;
+				}
+				idle = 0;
+
+				// Free the slots before the put, so producers can refill them during the network I/O
+				this.consumed.lazySet(next - 1);
+				long taken = System.nanoTime();
+				for (int i = 0; i < batch.size(); i++) {
+					queueWaitLatency.record(taken - batchPublishTimes[i]);
+				}
+
+				try {
+					this.outputQueue.sendDatagramBatch(batch, expiryTime);
+					long committed = System.nanoTime();
+					putLatency.record(committed - taken);
+					for (int i = 0; i < batch.size(); i++) {
+						endToEndLatency.record(committed - batchPublishTimes[i]);
+					}
+					sent.add(batch.size());
+				} catch (MQException | IOException e) {
+					failed.add(batch.size());
+					lastError = e;
+				}
+				batch.clear();
+			}
+		}
+
+		/**
+		 * Wait for the next message using the configured wait strategy
+		 * 
+		 * @param next  Sequence number expected next
+		 * @param count Number of times the thread has waited since it last found work
+		 */
+		private void idle(long next, int count) {
+			switch (waitStrategy) {
+			case BUSY_SPIN:
+				break;
+			case YIELDING:
+				if (count >= 100) {
+					Thread.yield();
+				}
+				break;
+			case SLEEPING:
+				if (count >= 200) {
+					LockSupport.parkNanos(100000);
+				} else if (count >= 100) {
+					Thread.yield();
+				}
+				break;
+			case BLOCKING:
+				if (count >= 100) {
+					this.waiting = true;
+					// Check again after setting the flag, in case a producer published before seeing it
+					if (this.sequences.get((int) (next & mask)) != next && !this.stopping) {
+						LockSupport.parkNanos(this, 1000000);
+					}
+					this.waiting = false;
+				}
+				break;
+			}
+		}
+	}
+}
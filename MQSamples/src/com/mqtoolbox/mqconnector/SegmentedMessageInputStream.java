@@ -0,0 +1,195 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQGetMessageOptions;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.constants.MQConstants;
+
+/**
+ * Stream over a logical message that was put as segments. The segments are got one at a time in logical order under
+ * syncpoint as the stream is read, so only one segment is held in memory. Closing the stream after reading to the end
+ * commits the gets; closing it earlier backs them out, leaving the whole logical message on the queue.
+ * 
+ * Created by {@link InputQueueGet#getSegmentedMessage(int)}. The stream must be closed before the connection is used
+ * for other work under syncpoint, as the commit or backout applies to the connection.
+ *
+ */
+public class SegmentedMessageInputStream extends InputStream {
+
+	private final Connector connector;
+
+	private final MQQueue queue;
+
+	private final MQMessage segment = new MQMessage();
+
+	private final MQGetMessageOptions gmo = new MQGetMessageOptions();
+
+	private byte[] groupId = null;
+
+	private String format = null;
+
+	// Bytes of the current segment not yet read
+	private int remaining = 0;
+
+	private boolean lastSegment = false;
+
+	private boolean closed = false;
+
+	/**
+	 * Get the first segment of the next logical message
+	 * 
+	 * @param connector
+	 * @param queue        Queue opened for input
+	 * @param waitInterval How long to wait (milliseconds) for a complete logical message to arrive
+	 * @throws MQException MQRC_NO_MSG_AVAILABLE if there is no complete logical message
+	 * @throws IOException
+	 */
+	SegmentedMessageInputStream(Connector connector, MQQueue queue, int waitInterval) throws MQException, IOException {
+		this.connector = connector;
+		this.queue = queue;
+		this.gmo.options = MQConstants.MQGMO_LOGICAL_ORDER | MQConstants.MQGMO_ALL_SEGMENTS_AVAILABLE | MQConstants.MQGMO_SYNCPOINT
+				| MQConstants.MQGMO_FAIL_IF_QUIESCING;
+		if (waitInterval != 0) {
+			this.gmo.options |= MQConstants.MQGMO_WAIT;
+			this.gmo.waitInterval = waitInterval;
+		}
+		this.gmo.matchOptions = MQConstants.MQMO_NONE;
+		this.nextSegment();
+		this.groupId = this.segment.groupId.clone();
+		this.format = this.segment.format;
+
+		// The remaining segments are already available
+		this.gmo.options &= ~MQConstants.MQGMO_WAIT;
+	}
+
+	/**
+	 * Get the next segment
+	 * 
+	 * @throws MQException
+	 * @throws IOException
+	 */
+	private void nextSegment() throws MQException, IOException {
+		this.segment.clearMessage();
+		this.segment.messageId = MQConstants.MQMI_NONE;
+		this.segment.correlationId = MQConstants.MQCI_NONE;
+		this.queue.get(this.segment, this.gmo);
+		this.remaining = this.segment.getDataLength();
+		this.lastSegment = this.gmo.segmentStatus != MQConstants.MQSS_SEGMENT;
+	}
+
+	/**
+	 * Move to the next segment if the current one is used up
+	 * 
+	 * @return false at the end of the logical message
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		while (this.remaining == 0) {
+			if (this.lastSegment) {
+				return false;
+			}
+			try {
+				this.nextSegment();
+			} catch (MQException e) {
+				throw new IOException(e);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (!this.fill()) {
+			return -1;
+		}
+		this.remaining--;
+		return this.segment.readUnsignedByte();
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!this.fill()) {
+			return -1;
+		}
+		int count = Math.min(len, this.remaining);
+		this.segment.readFully(b, off, count);
+		this.remaining -= count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return this.remaining;
+	}
+
+	/**
+	 * Commit the gets if the whole logical message was read, otherwise back them out
+	 */
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		try {
+			if (this.remaining == 0 && this.lastSegment) {
+				this.connector.getQueueManager().commit();
+			} else {
+				this.connector.getQueueManager().backout();
+			}
+		} catch (MQException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Return the group id of the logical message
+	 * 
+	 * @return
+	 */
+	public byte[] getGroupId() {
+		return groupId;
+	}
+
+	/**
+	 * Return the MQMD format of the logical message
+	 * 
+	 * @return
+	 */
+	public String getFormat() {
+		return format;
+	}
+}
@@ -27,6 +27,7 @@ import java.io.IOException;
 
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQPutMessageOptions;
 
 public class SendAndForget {
 
@@ -36,6 +37,13 @@ public class SendAndForget {
 
 	private String targetQueueName = null;
 
+	private boolean asyncPut = false;
+
+	private PutMode putMode = PutMode.OPEN_HANDLE;
+
+	// In AUTO mode, the queue is opened once it has been written to 3 times within 10 seconds
+	private DestinationActivityTracker activityTracker = new DestinationActivityTracker(3, 10000, 1);
+
 	/**
 	 * Put a send-and-forget message - that is, a datagram
 	 * 
@@ -49,6 +57,24 @@ public class SendAndForget {
 		this.openOutputQueue();
 	}
 
+	/**
+	 * Put a send-and-forget message using the passed put mode. With {@link PutMode#PUT1} or {@link PutMode#AUTO} the
+	 * queue is not opened here, so a destination that is written to once costs a single call to the queue manager.
+	 * 
+	 * @param connector
+	 * @param targetQueueName
+	 * @param putMode
+	 * @throws MQException
+	 */
+	public SendAndForget(Connector connector, String targetQueueName, PutMode putMode) throws MQException {
+		this.connector = connector;
+		this.targetQueueName = targetQueueName;
+		this.putMode = putMode;
+		if (putMode == PutMode.OPEN_HANDLE) {
+			this.openOutputQueue();
+		}
+	}
+
 	/**
 	 * Open the output queue
 	 * 
@@ -56,16 +82,47 @@ public class SendAndForget {
 	 */
 	private void openOutputQueue() throws MQException {
 		this.outputQueue = new OutputQueue(this.connector, this.targetQueueName);
+		this.outputQueue.setAsyncPut(this.asyncPut);
+	}
+
+	/**
+	 * Send messages without waiting for the queue manager to confirm each put. See {@link OutputQueue#setAsyncPut(boolean)}.
+	 * Register the connector with an {@link AsyncPutStatusMonitor} to be told how many puts succeeded or failed.
+	 * 
+	 * @param asyncPut
+	 */
+	public void setAsyncPut(boolean asyncPut) {
+		this.asyncPut = asyncPut;
+		if (this.outputQueue != null) {
+			this.outputQueue.setAsyncPut(asyncPut);
+		}
 	}
 
 	/**
-	 * Put the datagram message
+	 * Put the datagram message using the put mode this object was created with
 	 * 
 	 * @param datagramMessage
 	 * @throws MQException
 	 * @throws IOException
 	 */
 	public void sendMessage(MQMessage datagramMessage) throws MQException, IOException {
+		this.sendMessage(datagramMessage, this.putMode);
+	}
+
+	/**
+	 * Put the datagram message using the passed put mode
+	 * 
+	 * @param datagramMessage
+	 * @param putMode
+	 * @throws MQException
+	 * @throws IOException
+	 */
+	public void sendMessage(MQMessage datagramMessage, PutMode putMode) throws MQException, IOException {
+		boolean hot = this.activityTracker.recordAndCheck(this.targetQueueName);
+		if (putMode == PutMode.PUT1 || (putMode == PutMode.AUTO && this.outputQueue == null && !hot)) {
+			this.putOne(datagramMessage);
+			return;
+		}
 
 		// Open the queue if it is not already open
 		if (this.outputQueue == null) {
@@ -78,4 +135,46 @@ public class SendAndForget {
 		// Store relevant fields
 	}
 
+	/**
+	 * Put the message with a single MQPUT1 call. If the connection is lost, it is re-established and the put is retried
+	 * once.
+	 * 
+	 * @param datagramMessage
+	 * @throws MQException
+	 */
+	private void putOne(MQMessage datagramMessage) throws MQException {
+		MQPutMessageOptions pmo = new MQPutMessageOptions();
+		if (this.asyncPut) {
+			pmo.options = OutputQueue.asyncPutOptions(datagramMessage);
+		}
+		long generation = this.connector.getConnectionGeneration();
+		try {
+			this.connector.getQueueManager().put(this.targetQueueName, "", datagramMessage, pmo);
+		} catch (MQException e) {
+			if (!Connector.isConnectionError(e.reasonCode)) {
+				throw e;
+			}
+			this.connector.recover(generation);
+			this.connector.getQueueManager().put(this.targetQueueName, "", datagramMessage, pmo);
+		}
+	}
+
+	/**
+	 * Set when {@link PutMode#AUTO} switches from MQPUT1 to an open handle
+	 * 
+	 * @param threshold    Number of sends within the window after which the queue is kept open
+	 * @param windowMillis Length of the window in milliseconds
+	 */
+	public void setAutoOpenThreshold(int threshold, long windowMillis) {
+		this.activityTracker = new DestinationActivityTracker(threshold, windowMillis, 1);
+	}
+
+	public PutMode getPutMode() {
+		return putMode;
+	}
+
+	public void setPutMode(PutMode putMode) {
+		this.putMode = putMode;
+	}
+
 }
@@ -29,7 +29,8 @@ import com.ibm.mq.MQException;
 import com.ibm.mq.MQMessage;
 
 /**
- * Manage sending a request message and getting the matching reply message
+ * Manage sending a request message and getting the matching reply message. To have many requests in flight over
+ * one reply queue, see {@link ReplyDemultiplexer}.
  * 
  * @author Sean
  * 
@@ -0,0 +1,40 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.mqconnector;
+
+/**
+ * How an I/O thread waits for work when its ring buffer is empty. The strategies trade CPU use for the delay between a
+ * message being published and the I/O thread seeing it.
+ *
+ */
+public enum WaitStrategy {
+	/** Spin continuously; lowest delay, uses a whole core per I/O thread */
+	BUSY_SPIN,
+	/** Spin briefly, then yield the CPU to other threads */
+	YIELDING,
+	/** Spin, yield, then sleep for short periods; low CPU use when idle */
+	SLEEPING,
+	/** Spin briefly, then park until a producer publishes; lowest CPU use, adds a wake-up to the first message */
+	BLOCKING;
+}
@@ -31,9 +31,11 @@ import javax.net.ssl.SSLSocketFactory;
 
 import com.ibm.mq.MQException;
 import com.ibm.mq.MQMessage;
+import com.ibm.mq.MQPutMessageOptions;
 import com.ibm.mq.MQQueue;
 import com.ibm.mq.MQQueueManager;
 import com.ibm.mq.constants.MQConstants;
+import com.mqtoolbox.mqconnector.DestinationActivityTracker;
 //import com.mqtoolbox.conn.Keystore;
 //import com.mqtoolbox.support.TranslateSSLCipherSuite;
 
@@ -64,6 +66,23 @@ public class PutMessage {
 			example.openPutClose(qmgr, "ZTEST.QMGR1.QL", "hello");
 			example.openPutClose(qmgr, "ZTEST.QMGR1.QL", "hello");
 			example.openPutClose(qmgr, "ZTEST.QMGR1.QL", "hello");
+
+			// Cached handle style - the queue is opened once and kept open
+			QueueHandleCache cache = new QueueHandleCache(100);
+			example.putUsingHandleCache(cache, qmgr, "ZTEST.QMGR1.QL", "hello");
+			example.putUsingHandleCache(cache, qmgr, "ZTEST.QMGR1.QL", "hello");
+			example.putUsingHandleCache(cache, qmgr, "ZTEST.QMGR1.QL", "hello");
+			System.out.println(cache);
+
+			// Real PUT1 - open, put and close in one call to the queue manager
+			example.putOne(qmgr, "ZTEST.QMGR1.QL", "hello");
+
+			// Automatic - PUT1 until the queue has been written to 3 times in 10 seconds, then a cached handle
+			DestinationActivityTracker tracker = new DestinationActivityTracker(3, 10000, 10000);
+			for (int i = 0; i < 5; i++) {
+				example.putAuto(cache, tracker, qmgr, "ZTEST.QMGR1.QL", "hello");
+			}
+			cache.close();
 			
 		} catch (MQException e) {
 			System.out.println(
@@ -108,6 +127,92 @@ public class PutMessage {
 
 	}
 
+	/**
+	 * Put a message using a handle from the cache. The queue is opened on first use and kept open for later messages, so
+	 * repeated sends to the same destination cost one round trip instead of three.
+	 * 
+	 * @param cache     Cache of open queue handles
+	 * @param qmgr      Queue manager connected to
+	 * @param queueName Locally defined queue or cluster queue name
+	 * @param payload   Message to send
+	 * @return
+	 */
+	public final boolean putUsingHandleCache(QueueHandleCache cache, MQQueueManager qmgr, String queueName, String payload) {
+		int openOptions = MQConstants.MQOO_OUTPUT | MQConstants.MQOO_FAIL_IF_QUIESCING;
+		MQQueue queue = null;
+
+		try {
+			queue = cache.borrowQueue(qmgr, queueName, openOptions);
+		} catch (MQException e) {
+			System.out.println("Opening queue for output " + queueName + " FAILED, MQ reason code " + e.getReason());
+			return false;
+		}
+		try {
+			if (!this.putMessageString(queue, payload)) {
+				// Do not keep a handle that may no longer be usable
+				cache.invalidate(qmgr, queueName, null, openOptions);
+				return false;
+			}
+			return true;
+		} finally {
+			cache.release(queue);
+		}
+	}
+
+	/**
+	 * Put a message with MQPUT1, which opens the queue, puts the message and closes the queue in a single call to the
+	 * queue manager. Use this for destinations that are written to once or rarely.
+	 * 
+	 * @param qmgr      Queue manager connected to
+	 * @param queueName Locally defined queue or cluster queue name
+	 * @param payload   Message to send
+	 * @return
+	 */
+	public boolean putOne(MQQueueManager qmgr, String queueName, String payload) {
+		MQMessage msg = new MQMessage();
+		msg.messageType = MQConstants.MQMT_DATAGRAM;
+		msg.format = MQConstants.MQFMT_STRING;
+		msg.expiry = 600; // 60 seconds
+		MQPutMessageOptions pmo = new MQPutMessageOptions();
+		pmo.options = MQConstants.MQPMO_FAIL_IF_QUIESCING;
+		try {
+			System.out.print(String.format("Putting test message to queue %s with PUT1, ", queueName));
+			msg.writeString(payload);
+			qmgr.put(queueName, "", msg, pmo);
+		} catch (IOException e) {
+			System.out.println("FAILED, MQ reason code " + e.getLocalizedMessage());
+			e.printStackTrace();
+			return false;
+		} catch (MQException e) {
+			System.out.println("FAILED, MQ reason code " + e.getReason());
+			e.printStackTrace();
+			return false;
+		}
+		System.out.println("OK");
+		return true;
+	}
+
+	/**
+	 * Put a message, choosing how by how often the queue is written to. A queue that already has a cached handle, or that
+	 * the tracker reports as hot, is put to using the handle cache; any other queue is put to with MQPUT1.
+	 * 
+	 * @param cache     Cache of open queue handles
+	 * @param tracker   Tracks recent writes to each queue
+	 * @param qmgr      Queue manager connected to
+	 * @param queueName Locally defined queue or cluster queue name
+	 * @param payload   Message to send
+	 * @return
+	 */
+	public final boolean putAuto(QueueHandleCache cache, DestinationActivityTracker tracker, MQQueueManager qmgr, String queueName,
+			String payload) {
+		int openOptions = MQConstants.MQOO_OUTPUT | MQConstants.MQOO_FAIL_IF_QUIESCING;
+		boolean hot = tracker.recordAndCheck(queueName);
+		if (hot || cache.contains(qmgr, queueName, null, openOptions)) {
+			return this.putUsingHandleCache(cache, qmgr, queueName, payload);
+		}
+		return this.putOne(qmgr, queueName, payload);
+	}
+
 	/**
 	 * Open the queue for putting messages
 	 * 
@@ -70,6 +70,13 @@ public class PutMessageToRemoteQMgr {
 			example.openPutClose(qmgr, "QMGR2", "ZTEST.QMGR4.QL", "hello");
 			example.openPutClose(qmgr, "QMGR2", "ZTEST.QMGR5.QL", "hello");
 
+			// Cached handle style - each queue is opened once and kept open
+			QueueHandleCache cache = new QueueHandleCache(100);
+			example.putUsingHandleCache(cache, qmgr, "QMGR2", "ZTEST.QMGR2.QL", "hello");
+			example.putUsingHandleCache(cache, qmgr, "QMGR2", "ZTEST.QMGR2.QL", "hello");
+			System.out.println(cache);
+			cache.close();
+
 		} catch (MQException e) {
 			System.out.println(
 					String.format("MQ error details: %s(%s)\n\n%s", MQConstants.lookupReasonCode(e.getReason()), e.getReason(), e.getCause()));
@@ -114,6 +121,40 @@ public class PutMessageToRemoteQMgr {
 
 	}
 
+	/**
+	 * Put a message to a queue on a remote queue manager using a handle from the cache. The queue is opened on first use
+	 * and kept open for later messages.
+	 * 
+	 * @param cache          Cache of open queue handles
+	 * @param qmgr           Queue manager connected to
+	 * @param remoteQmgrName Name of the remote queue manager to send the message to
+	 * @param queueName      Queue name on the remote queue manager that the message is to be delivered to
+	 * @param payload        Message to send
+	 * @return
+	 */
+	public final boolean putUsingHandleCache(QueueHandleCache cache, MQQueueManager qmgr, String remoteQmgrName, String queueName,
+			String payload) {
+		int openOptions = MQConstants.MQOO_OUTPUT | MQConstants.MQOO_FAIL_IF_QUIESCING;
+		MQQueue queue = null;
+
+		try {
+			queue = cache.borrowQueue(qmgr, queueName, remoteQmgrName, openOptions);
+		} catch (MQException e) {
+			System.out.println("Opening queue for output " + queueName + " on " + remoteQmgrName + " FAILED, MQ reason code " + e.getReason());
+			return false;
+		}
+		try {
+			if (!this.putMessageString(queue, payload)) {
+				// Do not keep a handle that may no longer be usable
+				cache.invalidate(qmgr, queueName, remoteQmgrName, openOptions);
+				return false;
+			}
+			return true;
+		} finally {
+			cache.release(queue);
+		}
+	}
+
 	/**
 	 * Open the queue targeting a remote queue manager. In this example, 'qmgr'contains the connection to the connected to
 	 * queue manager, 'remoteQmgrName' is the queue manager where the message will be sent and 'queueName' contains the
@@ -0,0 +1,375 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.msg;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQQueue;
+import com.ibm.mq.MQQueueManager;
+
+/**
+ * Cache of open queue handles, so that a process sending to many destinations opens each queue once instead of doing an
+ * open, put and close for every message. Handles are keyed by queue manager connection, queue name, remote queue
+ * manager name and open options. When the maximum number of open handles is reached, the least recently used handle is
+ * closed.
+ * 
+ * The cache may be shared by several threads. A handle is borrowed with {@link #borrowQueue} and must be given back
+ * with {@link #release} once the put is done; a handle that is evicted or invalidated while borrowed is closed only
+ * when the last borrower releases it, so the number of open handles can briefly exceed the maximum. Queues are opened
+ * and closed outside the cache's lock, so a slow open does not hold up threads borrowing other handles; threads
+ * borrowing a handle that is still being opened wait for that open.
+ * 
+ * The MQQueueManager must not be disconnected while it has handles in the cache; call {@link #invalidateAll} first, or
+ * after a connection error.
+ *
+ */
+public class QueueHandleCache {
+
+	private final int maxOpenHandles;
+
+	// Access ordered, so the eldest entry is the least recently used
+	private final LinkedHashMap<Key, Entry> handles = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+
+	// Every handle not yet closed, including those removed from the cache but still borrowed
+	private final IdentityHashMap<MQQueue, Entry> openHandles = new IdentityHashMap<MQQueue, Entry>();
+
+	private long hits = 0;
+
+	private long misses = 0;
+
+	private long evictions = 0;
+
+	/**
+	 * Create a new cache
+	 * 
+	 * @param maxOpenHandles Maximum number of queues kept open at the same time
+	 */
+	public QueueHandleCache(int maxOpenHandles) {
+		if (maxOpenHandles < 1) {
+			throw new IllegalArgumentException("maxOpenHandles must be at least 1");
+		}
+		this.maxOpenHandles = maxOpenHandles;
+	}
+
+	/**
+	 * Borrow an open handle to a local or cluster queue, opening it if it is not in the cache. Call {@link #release} when
+	 * done with it.
+	 * 
+	 * @param qmgr        Queue manager connected to
+	 * @param queueName   Queue name
+	 * @param openOptions Open options
+	 * @return
+	 * @throws MQException
+	 */
+	public MQQueue borrowQueue(MQQueueManager qmgr, String queueName, int openOptions) throws MQException {
+		return this.borrowQueue(qmgr, queueName, null, openOptions);
+	}
+
+	/**
+	 * Borrow an open handle to a queue, opening it if it is not in the cache. Call {@link #release} when done with it.
+	 * 
+	 * @param qmgr           Queue manager connected to
+	 * @param queueName      Queue name
+	 * @param remoteQmgrName Name of the remote queue manager, or null for a local or cluster queue
+	 * @param openOptions    Open options
+	 * @return
+	 * @throws MQException
+	 */
+	public MQQueue borrowQueue(MQQueueManager qmgr, String queueName, String remoteQmgrName, int openOptions) throws MQException {
+		Key key = new Key(qmgr, queueName, remoteQmgrName, openOptions);
+		List<MQQueue> evicted = new ArrayList<MQQueue>();
+		Entry entry;
+		synchronized (this) {
+			boolean interrupted = false;
+			try {
+				while ((entry = this.handles.get(key)) != null && entry.queue == null) {
+					// Another thread is opening the queue
+					try {
+						this.wait();
+					} catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+			} finally {
+				if (interrupted) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (entry != null) {
+				this.hits++;
+				entry.borrowers++;
+				return entry.queue;
+			}
+			this.misses++;
+
+			// Make room before opening. Handles still being opened are not evicted.
+			Iterator<Entry> eldest = this.handles.values().iterator();
+			while (this.handles.size() >= this.maxOpenHandles && eldest.hasNext()) {
+				Entry candidate = eldest.next();
+				if (candidate.queue == null) {
+					continue;
+				}
+				eldest.remove();
+				this.evictions++;
+				this.retire(candidate, evicted);
+			}
+
+			// Reserve the key, so other threads wait for this open instead of opening the queue again
+			entry = new Entry();
+			entry.borrowers = 1;
+			this.handles.put(key, entry);
+		}
+		closeQuietly(evicted);
+
+		MQQueue queue;
+		try {
+			if (remoteQmgrName == null || remoteQmgrName.isEmpty()) {
+				queue = qmgr.accessQueue(queueName, openOptions);
+			} else {
+				queue = qmgr.accessQueue(queueName, openOptions, remoteQmgrName, null, null);
+			}
+		} catch (MQException e) {
+			synchronized (this) {
+				this.handles.remove(key, entry);
+				this.notifyAll();
+			}
+			throw e;
+		}
+		synchronized (this) {
+			// If the entry was invalidated while opening, the handle is closed on release
+			entry.queue = queue;
+			this.openHandles.put(queue, entry);
+			this.notifyAll();
+		}
+		return queue;
+	}
+
+	/**
+	 * Give back a handle from {@link #borrowQueue}. If it was evicted or invalidated while borrowed and this was the last
+	 * borrower, it is closed.
+	 * 
+	 * @param queue The borrowed handle
+	 */
+	public void release(MQQueue queue) {
+		synchronized (this) {
+			Entry entry = this.openHandles.get(queue);
+			if (entry == null || entry.borrowers == 0) {
+				return;
+			}
+			entry.borrowers--;
+			if (entry.borrowers != 0 || !entry.retired) {
+				return;
+			}
+			this.openHandles.remove(queue);
+		}
+		closeQuietly(queue);
+	}
+
+	/**
+	 * Return true if a handle for the queue is in the cache. This is not counted as a hit or a miss.
+	 * 
+	 * @param qmgr           Queue manager connected to
+	 * @param queueName      Queue name
+	 * @param remoteQmgrName Name of the remote queue manager, or null for a local or cluster queue
+	 * @param openOptions    Open options
+	 * @return
+	 */
+	public synchronized boolean contains(MQQueueManager qmgr, String queueName, String remoteQmgrName, int openOptions) {
+		return this.handles.containsKey(new Key(qmgr, queueName, remoteQmgrName, openOptions));
+	}
+
+	/**
+	 * Close and remove a handle, for example after a put to it failed
+	 * 
+	 * @param qmgr           Queue manager connected to
+	 * @param queueName      Queue name
+	 * @param remoteQmgrName Name of the remote queue manager, or null for a local or cluster queue
+	 * @param openOptions    Open options
+	 */
+	public void invalidate(MQQueueManager qmgr, String queueName, String remoteQmgrName, int openOptions) {
+		List<MQQueue> toClose = new ArrayList<MQQueue>();
+		synchronized (this) {
+			Entry entry = this.handles.remove(new Key(qmgr, queueName, remoteQmgrName, openOptions));
+			if (entry != null) {
+				this.retire(entry, toClose);
+			}
+		}
+		closeQuietly(toClose);
+	}
+
+	/**
+	 * Close and remove all handles opened on the passed connection
+	 * 
+	 * @param qmgr Queue manager connected to
+	 */
+	public void invalidateAll(MQQueueManager qmgr) {
+		List<MQQueue> toClose = new ArrayList<MQQueue>();
+		synchronized (this) {
+			Iterator<Map.Entry<Key, Entry>> entries = this.handles.entrySet().iterator();
+			while (entries.hasNext()) {
+				Map.Entry<Key, Entry> entry = entries.next();
+				if (entry.getKey().qmgr == qmgr) {
+					entries.remove();
+					this.retire(entry.getValue(), toClose);
+				}
+			}
+		}
+		closeQuietly(toClose);
+	}
+
+	/**
+	 * Close all handles. Handles still borrowed are closed when they are released.
+	 */
+	public void close() {
+		List<MQQueue> toClose = new ArrayList<MQQueue>();
+		synchronized (this) {
+			for (Entry entry : this.handles.values()) {
+				this.retire(entry, toClose);
+			}
+			this.handles.clear();
+		}
+		closeQuietly(toClose);
+	}
+
+	/**
+	 * Mark a handle removed from the cache as retired. If it is not borrowed it is added to the list to be closed once
+	 * the lock is released; otherwise it is closed by the last release.
+	 * 
+	 * @param entry
+	 * @param toClose
+	 */
+	private void retire(Entry entry, List<MQQueue> toClose) {
+		entry.retired = true;
+		if (entry.borrowers == 0 && entry.queue != null) {
+			this.openHandles.remove(entry.queue);
+			toClose.add(entry.queue);
+		}
+	}
+
+	private static void closeQuietly(List<MQQueue> queues) {
+		for (MQQueue queue : queues) {
+			closeQuietly(queue);
+		}
+	}
+
+	private static void closeQuietly(MQQueue queue) {
+		try {
+			queue.close();
+		} catch (MQException e) {
+			// The handle is discarded either way; it is also freed when the connection ends
+		}
+	}
+
+	/**
+	 * Return the number of open handles, including any removed from the cache but still borrowed
+	 * 
+	 * @return
+	 */
+	public synchronized int getOpenHandleCount() {
+		return this.openHandles.size();
+	}
+
+	public int getMaxOpenHandles() {
+		return maxOpenHandles;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	/**
+	 * Return the fraction of lookups that found an open handle, or 0 if there have been none
+	 * 
+	 * @return
+	 */
+	public synchronized double getHitRatio() {
+		long lookups = this.hits + this.misses;
+		return lookups == 0 ? 0 : (double) this.hits / lookups;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return String.format("QueueHandleCache[open=%d/%d, hits=%d, misses=%d, evictions=%d]", this.openHandles.size(), this.maxOpenHandles,
+				this.hits, this.misses, this.evictions);
+	}
+
+	/**
+	 * A cached handle and the number of threads using it. The queue is null while it is being opened.
+	 */
+	private static final class Entry {
+		private MQQueue queue = null;
+		private int borrowers = 0;
+		private boolean retired = false;
+	}
+
+	/**
+	 * Cache key. The connection is compared by identity, as two connections to the same queue manager have separate
+	 * handles.
+	 */
+	private static final class Key {
+		private final MQQueueManager qmgr;
+		private final String queueName;
+		private final String remoteQmgrName;
+		private final int openOptions;
+
+		Key(MQQueueManager qmgr, String queueName, String remoteQmgrName, int openOptions) {
+			this.qmgr = qmgr;
+			this.queueName = queueName.trim();
+			this.remoteQmgrName = remoteQmgrName == null ? "" : remoteQmgrName.trim();
+			this.openOptions = openOptions;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return this.qmgr == other.qmgr && this.openOptions == other.openOptions && this.queueName.equals(other.queueName)
+					&& this.remoteQmgrName.equals(other.remoteQmgrName);
+		}
+
+		@Override
+		public int hashCode() {
+			int hash = System.identityHashCode(this.qmgr);
+			hash = 31 * hash + this.queueName.hashCode();
+			hash = 31 * hash + this.remoteQmgrName.hashCode();
+			return 31 * hash + this.openOptions;
+		}
+	}
+}
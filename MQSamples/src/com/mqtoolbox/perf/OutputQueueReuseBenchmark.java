@@ -0,0 +1,133 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.perf;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.constants.MQConstants;
+import com.mqtoolbox.mqconnector.BindConnector;
+import com.mqtoolbox.mqconnector.Connector;
+import com.mqtoolbox.mqconnector.OutputQueue;
+
+// To test this example, complete the following.
+//
+// Create queue managers QMGR1.
+// 
+//def ql('ZTEST.QMGR1.QL') maxdepth(999999999) -m QMGR1
+//
+// Arguments (all optional): queue manager, queue, messages per run, payload size in bytes, measured runs.
+//
+// Compares OutputQueue with and without message reuse. For each mode, warm-up runs are followed by measured runs, and
+// the throughput and the bytes allocated per message on the sending thread are reported. Run with a fixed heap (for
+// example -Xms512m -Xmx512m) and -verbose:gc to also compare the young generation collections of the two modes.
+//
+public class OutputQueueReuseBenchmark {
+
+	private static final int WARMUP_RUNS = 3;
+
+	public static void main(String[] args) {
+		String qmgrName = args.length > 0 ? args[0] : "QMGR1";
+		String queueName = args.length > 1 ? args[1] : "ZTEST.QMGR1.QL";
+		int messages = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+		int payloadSize = args.length > 3 ? Integer.parseInt(args[3]) : 512;
+		int runs = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+
+		Connector connector = null;
+		OutputQueue outputQueue = null;
+
+		System.out.println("OutputQueue message reuse benchmark");
+		try {
+			connector = new BindConnector(qmgrName);
+			outputQueue = new OutputQueue(connector, queueName);
+			byte[] payload = new byte[payloadSize];
+
+			for (boolean reuse : new boolean[] { false, true }) {
+				outputQueue.setReuseMessage(reuse);
+				for (int i = 0; i < WARMUP_RUNS; i++) {
+					run(outputQueue, payload, messages);
+				}
+				double totalRate = 0;
+				double totalBytes = 0;
+				for (int i = 0; i < runs; i++) {
+					double[] result = run(outputQueue, payload, messages);
+					totalRate += result[0];
+					totalBytes += result[1];
+				}
+				System.out.println(String.format("reuse=%-5s %10.0f msgs/s %10.0f bytes allocated/msg", reuse, totalRate / runs, totalBytes / runs));
+			}
+		} catch (MQException e) {
+			System.out.println(
+					String.format("MQ error details: %s(%s)\n\n%s", MQConstants.lookupReasonCode(e.getReason()), e.getReason(), e.getCause()));
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			if (outputQueue != null) {
+				outputQueue.close();
+			}
+			if (connector != null) {
+				try {
+					connector.disconnect();
+				} catch (MQException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Send the passed number of messages and return the rate in messages per second and the bytes allocated per message
+	 * 
+	 * @param outputQueue
+	 * @param payload
+	 * @param messages
+	 * @return
+	 * @throws IOException
+	 * @throws MQException
+	 */
+	private static double[] run(OutputQueue outputQueue, byte[] payload, int messages) throws IOException, MQException {
+		long startBytes = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < messages; i++) {
+			outputQueue.sendDatagramMessage(payload, outputQueue.EXPIRY_UNLIMITED);
+		}
+		long elapsed = System.nanoTime() - start;
+		long allocated = allocatedBytes() - startBytes;
+		return new double[] { messages * 1_000_000_000.0 / elapsed, (double) allocated / messages };
+	}
+
+	/**
+	 * Bytes allocated so far by the current thread, or 0 if the JVM does not report it
+	 * 
+	 * @return
+	 */
+	private static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,125 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.perf;
+
+import java.util.List;
+
+import com.ibm.mq.MQException;
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.constants.MQConstants;
+import com.mqtoolbox.mqconnector.ClientConnector;
+import com.mqtoolbox.mqconnector.Connector;
+import com.mqtoolbox.mqconnector.InputQueueGet;
+import com.mqtoolbox.mqconnector.LatencyStats;
+import com.mqtoolbox.mqconnector.OutputQueue;
+
+// To test this example, complete the following.
+//
+// Create queue managers QMGR1 with a listener on port 1414 and a SVRCONN channel TEST.SVRCONN.
+// 
+//def ql('ZTEST.QMGR1.QL') defreada(no) maxdepth(999999999) -m QMGR1
+//
+// Arguments (all optional): host, port, queue, messages per run, payload size in bytes.
+//
+// Compares getting non-persistent messages over a client connection with one network round trip per get against
+// read ahead (MQOO_READ_AHEAD). For each mode the queue is loaded, then emptied, and the get rate and the latency of
+// each get are reported. Read ahead only applies to client connections. The client buffer size is set in the
+// MessageBuffer stanza of mqclient.ini.
+//
+public class ReadAheadBenchmark {
+
+	public static void main(String[] args) {
+		String hostName = args.length > 0 ? args[0] : "localhost";
+		int port = args.length > 1 ? Integer.parseInt(args[1]) : 1414;
+		String queueName = args.length > 2 ? args[2] : "ZTEST.QMGR1.QL";
+		int messages = args.length > 3 ? Integer.parseInt(args[3]) : 20000;
+		int payloadSize = args.length > 4 ? Integer.parseInt(args[4]) : 256;
+
+		Connector connector = null;
+
+		System.out.println("InputQueueGet read ahead benchmark");
+		try {
+			connector = new ClientConnector("QMGR1", "TEST.SVRCONN", hostName, port, null, null);
+			byte[] payload = new byte[payloadSize];
+
+			for (boolean readAhead : new boolean[] { false, true, false, true }) {
+				load(connector, queueName, payload, messages);
+
+				InputQueueGet input = new InputQueueGet(connector, queueName, readAhead);
+				LatencyStats latency = new LatencyStats();
+				int got = 0;
+				long start = System.nanoTime();
+				for (;;) {
+					long getStart = System.nanoTime();
+					MQMessage msg = input.getNextWithConvert(true, input.WAIT_5_SECONDS, null);
+					if (msg == null) {
+						break;
+					}
+					latency.record(System.nanoTime() - getStart);
+					got++;
+				}
+				// Exclude the final wait for a message that never arrives
+				long elapsed = System.nanoTime() - start - input.WAIT_5_SECONDS * 1000000L;
+				List<MQMessage> unread = input.closeAndDrain();
+
+				System.out.println(String.format("readAhead=%-5s %8d msgs %10.0f msgs/s  get latency %s  unread at close %d", readAhead, got,
+						got * 1_000_000_000.0 / Math.max(1, elapsed), latency, unread.size()));
+			}
+		} catch (MQException e) {
+			System.out.println(
+					String.format("MQ error details: %s(%s)\n\n%s", MQConstants.lookupReasonCode(e.getReason()), e.getReason(), e.getCause()));
+		} catch (Exception e) {
+			e.printStackTrace();
+		} finally {
+			if (connector != null) {
+				try {
+					connector.disconnect();
+				} catch (MQException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Put the passed number of non-persistent messages
+	 * 
+	 * @param connector
+	 * @param queueName
+	 * @param payload
+	 * @param messages
+	 * @throws Exception
+	 */
+	private static void load(Connector connector, String queueName, byte[] payload, int messages) throws Exception {
+		OutputQueue outputQueue = new OutputQueue(connector, queueName);
+		for (int i = 0; i < messages; i++) {
+			MQMessage msg = new MQMessage();
+			msg.persistence = MQConstants.MQPER_NOT_PERSISTENT;
+			msg.format = MQConstants.MQFMT_NONE;
+			msg.write(payload);
+			outputQueue.sendDatagramMessage(msg);
+		}
+		outputQueue.close();
+	}
+}
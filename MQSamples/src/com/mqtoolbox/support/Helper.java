@@ -76,16 +76,32 @@ public class Helper {
 		}
 		return payload;
 	}
+	/**
+	 * @deprecated To get the text of a message, use {@link #extractMessagePayloadAsString(MQMessage)}
+	 */
+	@Deprecated
 	public static final byte[] extractMessagePayloadAsByteUTF8(MQMessage msg) {
 		byte[] payload = null;
 		try {
 			payload = new byte[msg.getMessageLength()*2];
-			int i =0;
-			while (msg.getDataLength() != 0)
-				payload[i++]=msg.readByte();
+			msg.readFully(payload, 0, msg.getDataLength());
 		} catch (IOException e) {
 			return null;
 		}
 		return payload;
 	}
+
+	/**
+	 * Read the message payload as text, decoded from the message's character set (MQMD CCSID)
+	 * 
+	 * @param msg The message to process
+	 * @return
+	 */
+	public static final String extractMessagePayloadAsString(MQMessage msg) {
+		try {
+			return MessageTextDecoder.forCurrentThread().decode(msg);
+		} catch (IOException e) {
+			return null;
+		}
+	}
 }
@@ -0,0 +1,224 @@
+/**
+ MIT License
+
+Copyright (c) 2023 bdsaen
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+ */
+package com.mqtoolbox.support;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.mq.MQMessage;
+import com.ibm.mq.headers.CCSID;
+
+/**
+ * Decode message payloads to text in the message's character set. The payload is read in chunks into a reusable
+ * buffer and decoded with a reusable decoder, so no array the size of the message is allocated and the message is not
+ * read one byte at a time. Chunks that are pure ASCII in an ASCII compatible character set, such as UTF-8, are copied
+ * without going through the decoder.
+ * 
+ * A decoder holds buffers and decoders for reuse, so it must only be used by one thread at a time; keep one per thread,
+ * or use {@link #forCurrentThread()}.
+ *
+ */
+public class MessageTextDecoder {
+
+	private static final int CHUNK_SIZE = 8192;
+
+	// CCSID to Charset, shared by all decoders
+	private static final ConcurrentHashMap<Integer, Charset> charsets = new ConcurrentHashMap<Integer, Charset>();
+
+	private static final ThreadLocal<MessageTextDecoder> perThread = ThreadLocal.withInitial(MessageTextDecoder::new);
+
+	private final byte[] bytes = new byte[CHUNK_SIZE];
+
+	private final ByteBuffer byteBuffer = ByteBuffer.wrap(this.bytes);
+
+	private final CharBuffer charBuffer = CharBuffer.allocate(CHUNK_SIZE);
+
+	private final HashMap<Charset, CharsetDecoder> decoders = new HashMap<Charset, CharsetDecoder>();
+
+	private final StringBuilder text = new StringBuilder();
+
+	/**
+	 * Return the decoder for the current thread
+	 * 
+	 * @return
+	 */
+	public static MessageTextDecoder forCurrentThread() {
+		return perThread.get();
+	}
+
+	/**
+	 * Return the Java character set for an MQ CCSID. Successful lookups are cached.
+	 * 
+	 * @param ccsid
+	 * @return
+	 * @throws UnsupportedEncodingException if Java has no character set for the CCSID
+	 */
+	public static Charset charsetFor(int ccsid) throws UnsupportedEncodingException {
+		Charset charset = charsets.get(ccsid);
+		if (charset == null) {
+			charset = lookupCharset(ccsid);
+			charsets.put(ccsid, charset);
+		}
+		return charset;
+	}
+
+	private static Charset lookupCharset(int ccsid) throws UnsupportedEncodingException {
+		switch (ccsid) {
+		case 1208:
+			return StandardCharsets.UTF_8;
+		case 819:
+			return StandardCharsets.ISO_8859_1;
+		case 367:
+			return StandardCharsets.US_ASCII;
+		default:
+			try {
+				return Charset.forName(CCSID.getCodepage(ccsid));
+			} catch (Exception e) {
+				UnsupportedEncodingException unsupported = new UnsupportedEncodingException("No Java character set for CCSID " + ccsid);
+				unsupported.initCause(e);
+				throw unsupported;
+			}
+		}
+	}
+
+	/**
+	 * Decode the rest of the message payload, from its current position, using the message's character set
+	 * 
+	 * @param msg
+	 * @return
+	 * @throws IOException
+	 */
+	public String decode(MQMessage msg) throws IOException {
+		this.text.setLength(0);
+		this.decode(msg, this.text);
+		String result = this.text.toString();
+		if (this.text.capacity() > CHUNK_SIZE * 16) {
+			// Do not keep a very large builder after an unusually large message
+			this.text.setLength(0);
+			this.text.trimToSize();
+		}
+		return result;
+	}
+
+	/**
+	 * Decode the rest of the message payload, from its current position, using the message's character set, appending
+	 * the text to the passed builder. Malformed input is replaced with the character set's replacement character.
+	 * 
+	 * @param msg
+	 * @param out
+	 * @throws IOException
+	 *             including UnsupportedEncodingException if Java has no character set for the message's CCSID
+	 */
+	public void decode(MQMessage msg, StringBuilder out) throws IOException {
+		Charset charset = charsetFor(msg.characterSet);
+		boolean asciiCompatible = charset == StandardCharsets.UTF_8 || charset == StandardCharsets.ISO_8859_1
+				|| charset == StandardCharsets.US_ASCII;
+		int remaining = msg.getDataLength();
+		out.ensureCapacity(out.length() + remaining);
+
+		CharsetDecoder decoder = null;
+		this.byteBuffer.clear();
+		while (remaining > 0) {
+			// Read the next chunk after any bytes left over from the last one
+			int offset = this.byteBuffer.position();
+			int count = Math.min(remaining, CHUNK_SIZE - offset);
+			msg.readFully(this.bytes, offset, count);
+			remaining -= count;
+
+			if (decoder == null && asciiCompatible && offset == 0 && isAscii(this.bytes, count)) {
+				for (int i = 0; i < count; i++) {
+					out.append((char) this.bytes[i]);
+				}
+				continue;
+			}
+
+			if (decoder == null) {
+				decoder = this.decoderFor(charset);
+			}
+			this.byteBuffer.limit(offset + count);
+			this.byteBuffer.position(0);
+			this.decodeChunk(decoder, remaining == 0, out);
+			// Keep any incomplete character at the end for the next chunk
+			this.byteBuffer.compact();
+		}
+
+		if (decoder != null) {
+			this.charBuffer.clear();
+			decoder.flush(this.charBuffer);
+			this.charBuffer.flip();
+			out.append(this.charBuffer.array(), this.charBuffer.arrayOffset() + this.charBuffer.position(), this.charBuffer.remaining());
+		}
+	}
+
+	/**
+	 * Decode the byte buffer into the output through the char buffer
+	 * 
+	 * @param decoder
+	 * @param endOfInput
+	 * @param out
+	 * @throws CharacterCodingException
+	 */
+	private void decodeChunk(CharsetDecoder decoder, boolean endOfInput, StringBuilder out) throws CharacterCodingException {
+		for (;;) {
+			this.charBuffer.clear();
+			CoderResult result = decoder.decode(this.byteBuffer, this.charBuffer, endOfInput);
+			this.charBuffer.flip();
+			out.append(this.charBuffer.array(), this.charBuffer.arrayOffset() + this.charBuffer.position(), this.charBuffer.remaining());
+			if (result.isUnderflow()) {
+				return;
+			}
+			if (result.isError()) {
+				result.throwException();
+			}
+		}
+	}
+
+	private CharsetDecoder decoderFor(Charset charset) {
+		CharsetDecoder decoder = this.decoders.get(charset);
+		if (decoder == null) {
+			decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+			this.decoders.put(charset, decoder);
+		}
+		return decoder.reset();
+	}
+
+	private static boolean isAscii(byte[] bytes, int length) {
+		for (int i = 0; i < length; i++) {
+			if (bytes[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}